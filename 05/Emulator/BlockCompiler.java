@@ -0,0 +1,327 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// turns a basic block of decoded Hack instructions into a hidden class so HotSpot compiles it like any other method
+class BlockCompiler {
+
+    // straight line code from a block start to its jump, returns the next pc
+    interface Block {
+        int run(short[] ram, int[] registers);
+    }
+
+    // registers array layout shared with HackEmulator
+    static final int REGISTER_A = 0;
+    static final int REGISTER_D = 1;
+
+    // locals of the generated run method
+    private static final int LOCAL_RAM = 1;
+    private static final int LOCAL_REGISTERS = 2;
+    private static final int LOCAL_A = 3;
+    private static final int LOCAL_D = 4;
+    private static final int LOCAL_OUT = 5;
+    private static final int LOCAL_TARGET = 6;
+
+    // class file version 49 is verified without stack map frames
+    private static final int CLASS_VERSION = 49;
+
+    // constant pool indexes, see writeConstantPool
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_CLASS = 4;
+    private static final int BLOCK_INTERFACE = 6;
+    private static final int INIT_NAME = 7;
+    private static final int VOID_DESCRIPTOR = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int RUN_NAME = 11;
+    private static final int RUN_DESCRIPTOR = 12;
+    private static final int CODE_ATTRIBUTE = 13;
+    private static final int CONSTANT_POOL_COUNT = 14;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    private BlockCompiler() {}
+
+    static Block compile(short[] rom, int[] program, int start, int length) throws IllegalStateException {
+        BlockCompiler compiler = new BlockCompiler();
+        compiler.writeBlock(rom, program, start, length);
+        byte[] classFile = compiler.classFile();
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(classFile, true);
+            return (Block) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Block at " + start + " could not be compiled: " + e.getMessage(), e);
+        }
+    }
+
+    // true if the compiler has bytecode for the operation
+    static boolean canCompile(int op) {
+        return op < HackEmulator.OP_ALU;
+    }
+
+    private void writeBlock(short[] rom, int[] program, int start, int length) {
+        load(LOCAL_REGISTERS);
+        push(REGISTER_A);
+        emit(0x2E); // iaload
+        store(LOCAL_A);
+        load(LOCAL_REGISTERS);
+        push(REGISTER_D);
+        emit(0x2E); // iaload
+        store(LOCAL_D);
+
+        for (int pc = start; pc < start + length; pc++) {
+            int instruction = program[pc];
+            int op = instruction & HackEmulator.OP_MASK;
+            if (op == HackEmulator.OP_LOAD) {
+                push(rom[pc]);
+                store(LOCAL_A);
+                continue;
+            }
+            writeComp(op);
+            emit(0x93); // i2s
+            store(LOCAL_OUT);
+
+            int dest = instruction >> HackEmulator.DEST_SHIFT & 7;
+            int jump = instruction >> HackEmulator.JUMP_SHIFT;
+            if ((dest & HackEmulator.DEST_M) != 0) {
+                load(LOCAL_RAM);
+                loadAddress();
+                load(LOCAL_OUT);
+                emit(0x56); // sastore
+            }
+            if ((dest & HackEmulator.DEST_D) != 0) {
+                load(LOCAL_OUT);
+                store(LOCAL_D);
+            }
+            if (jump != 0) {
+                // the target is A from before the instruction
+                loadAddress();
+                store(LOCAL_TARGET);
+            }
+            if ((dest & HackEmulator.DEST_A) != 0) {
+                load(LOCAL_OUT);
+                store(LOCAL_A);
+            }
+            if (jump != 0) {
+                writeJump(jump, pc + 1);
+                return;
+            }
+        }
+        saveRegisters();
+        push(start + length);
+        emit(0xAC); // ireturn
+    }
+
+    private void writeJump(int jump, int next) {
+        saveRegisters();
+        if (jump != 7) {
+            load(LOCAL_OUT);
+            // skip over the fall through return when the condition holds
+            emit(condition(jump));
+            emitShort(3 + pushSize(next) + 1);
+            push(next);
+            emit(0xAC); // ireturn
+        }
+        load(LOCAL_TARGET);
+        emit(0xAC); // ireturn
+    }
+
+    private static int condition(int jump) {
+        boolean lt = (jump & HackEmulator.JUMP_LT) != 0;
+        boolean eq = (jump & HackEmulator.JUMP_EQ) != 0;
+        boolean gt = (jump & HackEmulator.JUMP_GT) != 0;
+        if (lt && eq) return 0x9E; // ifle
+        if (gt && eq) return 0x9C; // ifge
+        if (lt && gt) return 0x9A; // ifne
+        if (lt) return 0x9B; // iflt
+        if (gt) return 0x9D; // ifgt
+        return 0x99; // ifeq
+    }
+
+    // leaves the comp result on the stack, operations are numbered as in HackEmulator.execute
+    private void writeComp(int op) {
+        switch (op) {
+            case 0: push(0); return;
+            case 1: push(1); return;
+            case 2: push(-1); return;
+            case 3: load(LOCAL_D); return;
+            case 4: load(LOCAL_A); return;
+            case 5: load(LOCAL_D); not(); return;
+            case 6: load(LOCAL_A); not(); return;
+            case 7: load(LOCAL_D); emit(0x74); return; // ineg
+            case 8: load(LOCAL_A); emit(0x74); return;
+            case 9: load(LOCAL_D); push(1); emit(0x60); return; // iadd
+            case 10: load(LOCAL_A); push(1); emit(0x60); return;
+            case 11: load(LOCAL_D); push(1); emit(0x64); return; // isub
+            case 12: load(LOCAL_A); push(1); emit(0x64); return;
+            case 13: load(LOCAL_D); load(LOCAL_A); emit(0x60); return;
+            case 14: load(LOCAL_D); load(LOCAL_A); emit(0x64); return;
+            case 15: load(LOCAL_A); load(LOCAL_D); emit(0x64); return;
+            case 16: load(LOCAL_D); load(LOCAL_A); emit(0x7E); return; // iand
+            case 17: load(LOCAL_D); load(LOCAL_A); emit(0x80); return; // ior
+            case 18: loadM(); return;
+            case 19: loadM(); not(); return;
+            case 20: loadM(); emit(0x74); return;
+            case 21: loadM(); push(1); emit(0x60); return;
+            case 22: loadM(); push(1); emit(0x64); return;
+            case 23: load(LOCAL_D); loadM(); emit(0x60); return;
+            case 24: load(LOCAL_D); loadM(); emit(0x64); return;
+            case 25: loadM(); load(LOCAL_D); emit(0x64); return;
+            case 26: load(LOCAL_D); loadM(); emit(0x7E); return;
+            case 27: load(LOCAL_D); loadM(); emit(0x80); return;
+            default: throw new IllegalArgumentException("Operation " + op + " can't be compiled");
+        }
+    }
+
+    private void saveRegisters() {
+        load(LOCAL_REGISTERS);
+        push(REGISTER_A);
+        load(LOCAL_A);
+        emit(0x4F); // iastore
+        load(LOCAL_REGISTERS);
+        push(REGISTER_D);
+        load(LOCAL_D);
+        emit(0x4F);
+    }
+
+    private void loadM() {
+        load(LOCAL_RAM);
+        loadAddress();
+        emit(0x35); // saload
+    }
+
+    private void loadAddress() {
+        load(LOCAL_A);
+        push(HackEmulator.RAM_SIZE - 1);
+        emit(0x7E); // iand
+    }
+
+    private void not() {
+        push(-1);
+        emit(0x82); // ixor
+    }
+
+    // aload for the arrays, iload for the ints
+    private void load(int local) {
+        emit(local <= LOCAL_REGISTERS ? 0x19 : 0x15);
+        emit(local);
+    }
+
+    private void store(int local) {
+        emit(0x36); // istore
+        emit(local);
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(0x03 + value); // iconst
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(0x10); // bipush
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(0x11); // sipush
+            emitShort(value);
+        } else {
+            // only the pc after the last ROM word is out of sipush range
+            push(Short.MAX_VALUE);
+            push(value - Short.MAX_VALUE);
+            emit(0x60);
+        }
+    }
+
+    private static int pushSize(int value) {
+        if (value >= -1 && value <= 5) return 1;
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) return 2;
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) return 3;
+        return 3 + pushSize(value - Short.MAX_VALUE) + 1;
+    }
+
+    private void emit(int value) {
+        code.write(value);
+    }
+
+    private void emitShort(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private byte[] classFile() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            writeConstantPool(out);
+            out.writeShort(0x0010 | 0x0020); // final, super
+            out.writeShort(THIS_CLASS);
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(1);
+            out.writeShort(BLOCK_INTERFACE);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public constructor calling Object()
+            out.writeShort(0x0001);
+            out.writeShort(INIT_NAME);
+            out.writeShort(VOID_DESCRIPTOR);
+            writeCode(out, new byte[] {0x2A, (byte) 0xB7, 0, OBJECT_INIT, (byte) 0xB1}, 1, 1);
+
+            out.writeShort(0x0001);
+            out.writeShort(RUN_NAME);
+            out.writeShort(RUN_DESCRIPTOR);
+            writeCode(out, code.toByteArray(), 5, LOCAL_TARGET + 1);
+
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeConstantPool(DataOutputStream out) throws IOException {
+        out.writeShort(CONSTANT_POOL_COUNT);
+        writeUtf8(out, "HackBlock");                 // 1
+        writeClass(out, 1);                          // 2
+        writeUtf8(out, "java/lang/Object");          // 3
+        writeClass(out, 3);                          // 4
+        writeUtf8(out, "BlockCompiler$Block");       // 5
+        writeClass(out, 5);                          // 6
+        writeUtf8(out, "<init>");                    // 7
+        writeUtf8(out, "()V");                       // 8
+        out.writeByte(12);                           // 9 name and type
+        out.writeShort(INIT_NAME);
+        out.writeShort(VOID_DESCRIPTOR);
+        out.writeByte(10);                           // 10 method reference
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(9);
+        writeUtf8(out, "run");                       // 11
+        writeUtf8(out, "([S[I)I");                   // 12
+        writeUtf8(out, "Code");                      // 13
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void writeClass(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static void writeCode(DataOutputStream out, byte[] code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(1); // attributes
+        out.writeShort(CODE_ATTRIBUTE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+}
@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// runs .hack programs without the GUI, each instruction is decoded once when the ROM is loaded
+class HackEmulator {
+
+    static final int ROM_SIZE = 1 << 15;
+    static final int RAM_SIZE = 1 << 15;
+    private static final int ADDRESS_MASK = RAM_SIZE - 1;
+    private static final long DEFAULT_CYCLES = 100_000_000L;
+    // block entries before it is compiled, colder blocks stay interpreted
+    private static final int COMPILE_THRESHOLD = 1000;
+    // keeps the generated methods under the size HotSpot is willing to compile
+    private static final int MAX_BLOCK_LENGTH = 128;
+
+    // comp mnemonics in the order of the operations in execute, their bits come from Code
+    private static final String[] COMPS = {
+            "0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1",
+            "D+A", "D-A", "A-D", "D&A", "D|A",
+            "M", "!M", "-M", "M+1", "M-1", "D+M", "D-M", "M-D", "D&M", "D|M"};
+
+    // operations past the comp mnemonics
+    static final int OP_ALU = COMPS.length;
+    static final int OP_LOAD = OP_ALU + 1;
+    // @n followed by 0;JMP at n, the usual end of a program
+    static final int OP_HALT = OP_LOAD + 1;
+
+    static final int OP_BITS = 5;
+    static final int OP_MASK = (1 << OP_BITS) - 1;
+    static final int DEST_SHIFT = OP_BITS;
+    static final int JUMP_SHIFT = DEST_SHIFT + 3;
+
+    // dest and jump bits in the layout Code assembles them
+    static final int DEST_A = Code.get().dest("A");
+    static final int DEST_D = Code.get().dest("D");
+    static final int DEST_M = Code.get().dest("M");
+    static final int JUMP_LT = Code.get().jump("JLT");
+    static final int JUMP_EQ = Code.get().jump("JEQ");
+    static final int JUMP_GT = Code.get().jump("JGT");
+
+    private static final int[] COMP_OPS = compOps();
+
+    private final short[] rom;
+    // op | dest << DEST_SHIFT | jump << JUMP_SHIFT for each ROM word
+    private final int[] program;
+    private final short[] ram = new short[RAM_SIZE];
+
+    private int a = 0;
+    private int d = 0;
+    private int pc = 0;
+    private long cycles = 0;
+
+    // set by enableCompilation, blockLengths is 0 where no block starts
+    private int[] blockLengths = null;
+    private int[] blockEntries;
+    private BlockCompiler.Block[] blocks;
+    private int[] registers = new int[2];
+
+    HackEmulator(short[] rom) {
+        if (rom.length > ROM_SIZE) {
+            throw new IllegalArgumentException("Program has " + rom.length + " instructions, ROM holds " + ROM_SIZE);
+        }
+        this.rom = rom;
+        this.program = new int[rom.length];
+        for (int i = 0; i < rom.length; i++) {
+            program[i] = decode(i);
+        }
+    }
+
+    static HackEmulator load(String file) throws IOException, IllegalArgumentException {
+        SourceReader reader = SourceReader.open(file);
+        short[] words = new short[256];
+        int size = 0;
+        while (reader.hasNext()) {
+            String line = reader.nextCodeLine(false);
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+            }
+            words[size++] = parseWord(line);
+        }
+        return new HackEmulator(Arrays.copyOf(words, size));
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: HackEmulator file.hack [cycles] [address=value ...] [time] [jit]");
+            return;
+        }
+        HackEmulator emulator;
+        try {
+            emulator = load(args[0]);
+        } catch (IOException e) {
+            System.out.println("ERROR: No file " + args[0]);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println("File: " + args[0] + "\n---Error: " + e.getMessage());
+            return;
+        }
+
+        long maxCycles = DEFAULT_CYCLES;
+        boolean time = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int equals = arg.indexOf('=');
+            if (arg.equals("time")) {
+                time = true;
+            } else if (arg.equals("jit")) {
+                emulator.enableCompilation();
+            } else if (equals > 0) {
+                emulator.poke(Integer.parseInt(arg.substring(0, equals)), Integer.parseInt(arg.substring(equals + 1)));
+            } else {
+                maxCycles = Long.parseLong(arg);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        emulator.run(maxCycles);
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println("Cycles: " + emulator.getCycles() + (emulator.isHalted() ? "" : " (stopped at limit)"));
+        StringBuilder registers = new StringBuilder("R0-R15:");
+        for (int i = 0; i < 16; i++) {
+            registers.append(' ').append(emulator.peek(i));
+        }
+        System.out.println(registers);
+        if (time) {
+            System.out.println("Ran in " + elapsed / 1_000_000 + " ms, " +
+                    emulator.getCycles() * 1000 / Math.max(elapsed, 1) + " million instructions per second");
+        }
+    }
+
+    int peek(int address) {
+        return ram[address & ADDRESS_MASK];
+    }
+
+    void poke(int address, int value) {
+        ram[address & ADDRESS_MASK] = (short) value;
+    }
+
+    long getCycles() {
+        return cycles;
+    }
+
+    int getPc() {
+        return pc;
+    }
+
+    int getA() {
+        return a;
+    }
+
+    int getD() {
+        return d;
+    }
+
+    // the halt loop or the end of the ROM
+    boolean isHalted() {
+        return pc >= program.length || program[pc] == OP_HALT;
+    }
+
+    void reset() {
+        pc = 0;
+    }
+
+    // hot basic blocks are compiled to JVM classes from now on
+    // a block may start at any pc and runs to its first jump, so blocks overlap where code falls through
+    void enableCompilation() {
+        blockLengths = new int[program.length + 1];
+        blockEntries = new int[program.length];
+        blocks = new BlockCompiler.Block[program.length];
+        for (int pc = program.length - 1; pc >= 0; pc--) {
+            int op = program[pc] & OP_MASK;
+            if (op == OP_HALT || (op != OP_LOAD && !BlockCompiler.canCompile(op))) {
+                blockLengths[pc] = 0;
+            } else if (op != OP_LOAD && program[pc] >> JUMP_SHIFT != 0) {
+                blockLengths[pc] = 1;
+            } else {
+                blockLengths[pc] = Math.min(1 + blockLengths[pc + 1], MAX_BLOCK_LENGTH);
+            }
+        }
+    }
+
+    // runs until the program halts or maxCycles more instructions have executed
+    void run(long maxCycles) {
+        if (blockLengths != null) {
+            runCompiled(maxCycles);
+        } else {
+            interpret(maxCycles);
+        }
+    }
+
+    // compiled blocks run whole, anything else is interpreted one instruction at a time
+    private void runCompiled(long maxCycles) {
+        short[] ram = this.ram;
+        int[] program = this.program;
+        int[] blockLengths = this.blockLengths;
+        BlockCompiler.Block[] blocks = this.blocks;
+        // A and D stay in the registers array while blocks run
+        int[] registers = this.registers;
+        registers[BlockCompiler.REGISTER_A] = a;
+        registers[BlockCompiler.REGISTER_D] = d;
+        int pc = this.pc;
+        long remaining = maxCycles;
+        long compiledCycles = 0;
+        while (remaining > 0 && pc < program.length && program[pc] != OP_HALT) {
+            int length = blockLengths[pc];
+            if (length > 0 && length <= remaining) {
+                BlockCompiler.Block block = blocks[pc];
+                if (block == null && ++blockEntries[pc] == COMPILE_THRESHOLD) {
+                    block = blocks[pc] = BlockCompiler.compile(rom, program, pc, length);
+                }
+                if (block != null) {
+                    pc = block.run(ram, registers);
+                    remaining -= length;
+                    compiledCycles += length;
+                    continue;
+                }
+            }
+            this.a = registers[BlockCompiler.REGISTER_A];
+            this.d = registers[BlockCompiler.REGISTER_D];
+            this.pc = pc;
+            interpret(1);
+            registers[BlockCompiler.REGISTER_A] = a;
+            registers[BlockCompiler.REGISTER_D] = d;
+            pc = this.pc;
+            remaining--;
+        }
+        this.a = registers[BlockCompiler.REGISTER_A];
+        this.d = registers[BlockCompiler.REGISTER_D];
+        this.pc = pc;
+        // interpret has already counted its own cycles
+        cycles += compiledCycles;
+    }
+
+    private void interpret(long maxCycles) {
+        short[] rom = this.rom;
+        int[] program = this.program;
+        short[] ram = this.ram;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long remaining = maxCycles;
+
+        while (remaining > 0 && pc < program.length) {
+            int instruction = program[pc];
+            int op = instruction & OP_MASK;
+            if (op == OP_LOAD) {
+                a = rom[pc];
+                pc++;
+                remaining--;
+                continue;
+            }
+            if (op == OP_HALT) {
+                break;
+            }
+            int address = a & ADDRESS_MASK;
+            int out = (short) execute(op, rom[pc], a, d, ram[address]);
+            int dest = instruction >> DEST_SHIFT & 7;
+            if ((dest & DEST_M) != 0) {
+                ram[address] = (short) out;
+            }
+            if ((dest & DEST_D) != 0) {
+                d = out;
+            }
+            // the jump target is A from before this instruction, as in the CPU
+            int jump = instruction >> JUMP_SHIFT;
+            if (jump != 0 && (jump & (out < 0 ? JUMP_LT : out == 0 ? JUMP_EQ : JUMP_GT)) != 0) {
+                pc = a & ADDRESS_MASK;
+            } else {
+                pc++;
+            }
+            if ((dest & DEST_A) != 0) {
+                a = out;
+            }
+            remaining--;
+        }
+
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        cycles += maxCycles - remaining;
+    }
+
+    static int execute(int op, int word, int a, int d, int m) {
+        switch (op) {
+            case 0: return 0;
+            case 1: return 1;
+            case 2: return -1;
+            case 3: return d;
+            case 4: return a;
+            case 5: return ~d;
+            case 6: return ~a;
+            case 7: return -d;
+            case 8: return -a;
+            case 9: return d + 1;
+            case 10: return a + 1;
+            case 11: return d - 1;
+            case 12: return a - 1;
+            case 13: return d + a;
+            case 14: return d - a;
+            case 15: return a - d;
+            case 16: return d & a;
+            case 17: return d | a;
+            case 18: return m;
+            case 19: return ~m;
+            case 20: return -m;
+            case 21: return m + 1;
+            case 22: return m - 1;
+            case 23: return d + m;
+            case 24: return d - m;
+            case 25: return m - d;
+            case 26: return d & m;
+            case 27: return d | m;
+            default: return alu(word, d, (word & 0x1000) != 0 ? m : a);
+        }
+    }
+
+    // comp bits that have no mnemonic still do what the ALU would do with them
+    private static int alu(int word, int x, int y) {
+        if ((word & 0x0800) != 0) x = 0;
+        if ((word & 0x0400) != 0) x = ~x;
+        if ((word & 0x0200) != 0) y = 0;
+        if ((word & 0x0100) != 0) y = ~y;
+        int out = (word & 0x0080) != 0 ? x + y : x & y;
+        return (word & 0x0040) != 0 ? ~out : out;
+    }
+
+    private int decode(int index) {
+        int word = rom[index] & 0xFFFF;
+        if ((word & 0x8000) == 0) {
+            boolean halt = index + 1 < rom.length && word == index &&
+                    (rom[index + 1] & 0xFFFF) == (0xE000 | Code.get().comp("0") << 6 | Code.get().jump("JMP"));
+            return halt ? OP_HALT : OP_LOAD;
+        }
+        int op = COMP_OPS[word >> 6 & 0x7F];
+        return op | (word >> 3 & 7) << DEST_SHIFT | (word & 7) << JUMP_SHIFT;
+    }
+
+    private static int[] compOps() {
+        int[] ops = new int[1 << 7];
+        Arrays.fill(ops, OP_ALU);
+        for (int i = 0; i < COMPS.length; i++) {
+            ops[Code.get().comp(COMPS[i])] = i;
+        }
+        return ops;
+    }
+
+    private static short parseWord(String line) throws IllegalArgumentException {
+        if (line.length() != 16) {
+            throw new IllegalArgumentException(line + " is not a 16 bit instruction");
+        }
+        int word = 0;
+        for (int i = 0; i < 16; i++) {
+            char c = line.charAt(i);
+            if (c != '0' && c != '1') {
+                throw new IllegalArgumentException(line + " is not a 16 bit instruction");
+            }
+            word = word << 1 | (c - '0');
+        }
+        return (short) word;
+    }
+}
@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// chips implemented in Java, used for any part with no .hdl file of its name
+class BuiltinChips {
+
+    // packed pin values in, one int per input pin and per output pin
+    interface Logic {
+        void evaluate(int[] in, int[] out);
+    }
+
+    // a built-in part of a Netlist, reads and writes its pins through the netlist signals
+    abstract static class Instance {
+        String name;
+        Netlist netlist;
+        int node;
+        // signals of each pin, inputs first then outputs
+        int[][] pins;
+
+        final int read(int pin) {
+            int[] signals = pins[pin];
+            int value = 0;
+            for (int i = 0; i < signals.length; i++) {
+                value |= netlist.values[signals[i]] << i;
+            }
+            return value;
+        }
+
+        final void write(int pin, int value) {
+            int[] signals = pins[pin];
+            for (int i = 0; i < signals.length; i++) {
+                netlist.set(signals[i], value >> i & 1);
+            }
+        }
+
+        final void schedule() {
+            netlist.schedule(node);
+        }
+
+        abstract void evaluate();
+
+        // one copy of the part per bit of the longs, see Netlist.evaluate(long[])
+        void evaluate(long[] lanes) {
+            throw new IllegalArgumentException(name + " can't be evaluated bit parallel");
+        }
+
+        void tick() {}
+
+        void tock() {}
+
+        boolean isClocked() {
+            return true;
+        }
+
+        // internal state shown as Name[] or Name[index] in test scripts
+        boolean hasValue() {
+            return false;
+        }
+
+        int getValue(int index) {
+            throw new IllegalArgumentException(name + " has no internal value");
+        }
+
+        void setValue(int index, int value) {
+            throw new IllegalArgumentException(name + " has no internal value");
+        }
+
+        int valueWidth() {
+            return pins[pins.length - 1].length;
+        }
+    }
+
+    static class Builtin {
+        final ChipDefinition chip;
+        // inputs the outputs depend on without a clock in between
+        final boolean[] combinational;
+        // null for clocked chips
+        final Logic logic;
+        private final Supplier<Instance> factory;
+
+        Builtin(ChipDefinition chip, boolean[] combinational, Logic logic, Supplier<Instance> factory) {
+            this.chip = chip;
+            this.combinational = combinational;
+            this.logic = logic;
+            this.factory = factory;
+        }
+
+        Instance create() {
+            Instance instance = factory.get();
+            instance.name = chip.name;
+            return instance;
+        }
+    }
+
+    private static final Map<String, Builtin> builtins = new HashMap<>();
+
+    static {
+        // Nand and DFF are kept in flat arrays by Netlist, they are listed for their pins
+        combinational("Nand", "a b", "out", (in, out) -> out[0] = ~(in[0] & in[1]));
+        clocked("DFF", "in", "out", "", () -> new Register(false));
+
+        combinational("Not", "in", "out", (in, out) -> out[0] = ~in[0]);
+        combinational("And", "a b", "out", (in, out) -> out[0] = in[0] & in[1]);
+        combinational("Or", "a b", "out", (in, out) -> out[0] = in[0] | in[1]);
+        combinational("Xor", "a b", "out", (in, out) -> out[0] = in[0] ^ in[1]);
+        combinational("Mux", "a b sel", "out", (in, out) -> out[0] = in[2] == 0 ? in[0] : in[1]);
+        combinational("DMux", "in sel", "a b", BuiltinChips::demultiplex);
+        combinational("Not16", "in[16]", "out[16]", (in, out) -> out[0] = ~in[0]);
+        combinational("And16", "a[16] b[16]", "out[16]", (in, out) -> out[0] = in[0] & in[1]);
+        combinational("Or16", "a[16] b[16]", "out[16]", (in, out) -> out[0] = in[0] | in[1]);
+        combinational("Mux16", "a[16] b[16] sel", "out[16]", BuiltinChips::multiplex);
+        combinational("Or8Way", "in[8]", "out", (in, out) -> out[0] = in[0] != 0 ? 1 : 0);
+        combinational("Mux4Way16", "a[16] b[16] c[16] d[16] sel[2]", "out[16]", BuiltinChips::multiplex);
+        combinational("Mux8Way16", "a[16] b[16] c[16] d[16] e[16] f[16] g[16] h[16] sel[3]", "out[16]",
+                BuiltinChips::multiplex);
+        combinational("DMux4Way", "in sel[2]", "a b c d", BuiltinChips::demultiplex);
+        combinational("DMux8Way", "in sel[3]", "a b c d e f g h", BuiltinChips::demultiplex);
+
+        combinational("HalfAdder", "a b", "sum carry", (in, out) -> {
+            out[0] = in[0] ^ in[1];
+            out[1] = in[0] & in[1];
+        });
+        combinational("FullAdder", "a b c", "sum carry", (in, out) -> {
+            int sum = in[0] + in[1] + in[2];
+            out[0] = sum;
+            out[1] = sum >> 1;
+        });
+        combinational("Add16", "a[16] b[16]", "out[16]", (in, out) -> out[0] = in[0] + in[1]);
+        combinational("Inc16", "in[16]", "out[16]", (in, out) -> out[0] = in[0] + 1);
+        combinational("ALU", "x[16] y[16] zx nx zy ny f no", "out[16] zr ng", BuiltinChips::alu);
+
+        clocked("Bit", "in load", "out", "", () -> new Register(true));
+        clocked("Register", "in[16] load", "out[16]", "", () -> new Register(true));
+        clocked("ARegister", "in[16] load", "out[16]", "", () -> new Register(true));
+        clocked("DRegister", "in[16] load", "out[16]", "", () -> new Register(true));
+        clocked("PC", "in[16] load inc reset", "out[16]", "", ProgramCounter::new);
+        clocked("RAM8", "in[16] load address[3]", "out[16]", "address", () -> new Memory(8));
+        clocked("RAM64", "in[16] load address[6]", "out[16]", "address", () -> new Memory(64));
+        clocked("RAM512", "in[16] load address[9]", "out[16]", "address", () -> new Memory(512));
+        clocked("RAM4K", "in[16] load address[12]", "out[16]", "address", () -> new Memory(4096));
+        clocked("RAM16K", "in[16] load address[14]", "out[16]", "address", () -> new Memory(16384));
+        clocked("Screen", "in[16] load address[13]", "out[16]", "address", () -> new Memory(8192));
+        clocked("ROM32K", "address[15]", "out[16]", "address", Rom::new);
+        clocked("Keyboard", "", "out[16]", "", Keyboard::new);
+    }
+
+    static Builtin find(String name) {
+        return builtins.get(name);
+    }
+
+    private static void combinational(String name, String inputs, String outputs, Logic logic) {
+        ChipDefinition chip = chip(name, inputs, outputs);
+        boolean[] combinational = new boolean[chip.inputs.size()];
+        Arrays.fill(combinational, true);
+        int inputCount = chip.inputs.size();
+        int outputCount = chip.outputs.size();
+        builtins.put(name, new Builtin(chip, combinational, logic,
+                () -> new Combinational(logic, inputCount, outputCount)));
+    }
+
+    // combinationalInputs lists the inputs read when evaluating, the rest are only read on a tick
+    private static void clocked(String name, String inputs, String outputs, String combinationalInputs,
+                                Supplier<Instance> factory) {
+        ChipDefinition chip = chip(name, inputs, outputs);
+        boolean[] combinational = new boolean[chip.inputs.size()];
+        for (String input : split(combinationalInputs)) {
+            for (int i = 0; i < chip.inputs.size(); i++) {
+                combinational[i] |= chip.inputs.get(i).name.equals(input);
+            }
+        }
+        builtins.put(name, new Builtin(chip, combinational, null, factory));
+    }
+
+    // pins are written as "a b[16]"
+    private static ChipDefinition chip(String name, String inputs, String outputs) {
+        ChipDefinition chip = new ChipDefinition(name, null);
+        addPins(chip.inputs, inputs);
+        addPins(chip.outputs, outputs);
+        return chip;
+    }
+
+    private static void addPins(List<ChipDefinition.Pin> pins, String spec) {
+        for (String pin : split(spec)) {
+            int bracket = pin.indexOf('[');
+            if (bracket < 0) {
+                pins.add(new ChipDefinition.Pin(pin, 1));
+            } else {
+                int width = Integer.parseInt(pin.substring(bracket + 1, pin.length() - 1));
+                pins.add(new ChipDefinition.Pin(pin.substring(0, bracket), width));
+            }
+        }
+    }
+
+    private static String[] split(String spec) {
+        return spec.isEmpty() ? new String[0] : spec.split(" ");
+    }
+
+    // the last input selects one of the others
+    private static void multiplex(int[] in, int[] out) {
+        out[0] = in[in[in.length - 1]];
+    }
+
+    private static void demultiplex(int[] in, int[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = i == in[1] ? in[0] : 0;
+        }
+    }
+
+    private static void alu(int[] in, int[] out) {
+        int x = in[2] != 0 ? 0 : in[0];
+        x = in[3] != 0 ? ~x : x;
+        int y = in[4] != 0 ? 0 : in[1];
+        y = in[5] != 0 ? ~y : y;
+        int result = in[6] != 0 ? x + y : x & y;
+        result = (in[7] != 0 ? ~result : result) & 0xFFFF;
+        out[0] = result;
+        out[1] = result == 0 ? 1 : 0;
+        out[2] = result >> 15;
+    }
+
+    private static class Combinational extends Instance {
+        private final Logic logic;
+        private final int[] in;
+        private final int[] out;
+
+        Combinational(Logic logic, int inputCount, int outputCount) {
+            this.logic = logic;
+            this.in = new int[inputCount];
+            this.out = new int[outputCount];
+        }
+
+        @Override
+        boolean isClocked() {
+            return false;
+        }
+
+        @Override
+        void evaluate() {
+            for (int i = 0; i < in.length; i++) {
+                in[i] = read(i);
+            }
+            logic.evaluate(in, out);
+            for (int i = 0; i < out.length; i++) {
+                write(in.length + i, out[i]);
+            }
+        }
+
+        // gathers each lane's inputs, runs the logic and scatters the outputs back
+        @Override
+        void evaluate(long[] lanes) {
+            for (int i = 0; i < out.length; i++) {
+                for (int signal : pins[in.length + i]) {
+                    lanes[signal] = 0;
+                }
+            }
+            for (int lane = 0; lane < 64; lane++) {
+                for (int i = 0; i < in.length; i++) {
+                    int[] signals = pins[i];
+                    int value = 0;
+                    for (int bit = 0; bit < signals.length; bit++) {
+                        value |= (int) (lanes[signals[bit]] >>> lane & 1) << bit;
+                    }
+                    in[i] = value;
+                }
+                logic.evaluate(in, out);
+                for (int i = 0; i < out.length; i++) {
+                    int[] signals = pins[in.length + i];
+                    for (int bit = 0; bit < signals.length; bit++) {
+                        lanes[signals[bit]] |= (long) (out[i] >> bit & 1) << lane;
+                    }
+                }
+            }
+        }
+    }
+
+    // DFF, Bit and the registers, the output follows the state on the tock
+    private static class Register extends Instance {
+        private final boolean hasLoad;
+        int state = 0;
+        private int output = 0;
+
+        Register(boolean hasLoad) {
+            this.hasLoad = hasLoad;
+        }
+
+        @Override
+        void evaluate() {
+            write(pins.length - 1, output);
+        }
+
+        @Override
+        void tick() {
+            if (!hasLoad || read(1) != 0) {
+                state = read(0);
+            }
+        }
+
+        @Override
+        void tock() {
+            if (output != state) {
+                output = state;
+                schedule();
+            }
+        }
+
+        @Override
+        boolean hasValue() {
+            return true;
+        }
+
+        @Override
+        int getValue(int index) {
+            return state;
+        }
+
+        @Override
+        void setValue(int index, int value) {
+            state = value;
+            output = value;
+            schedule();
+        }
+    }
+
+    private static class ProgramCounter extends Register {
+
+        ProgramCounter() {
+            super(true);
+        }
+
+        @Override
+        void tick() {
+            if (read(3) != 0) {
+                state = 0;
+            } else if (read(1) != 0) {
+                state = read(0);
+            } else if (read(2) != 0) {
+                state = state + 1 & 0xFFFF;
+            }
+        }
+    }
+
+    // RAM chips and the screen, writes land on the tock like a register
+    private static class Memory extends Instance {
+        final int[] words;
+        private int pendingAddress = -1;
+        private int pendingValue;
+
+        Memory(int size) {
+            words = new int[size];
+        }
+
+        @Override
+        void evaluate() {
+            write(pins.length - 1, words[read(pins.length - 2)]);
+        }
+
+        @Override
+        void tick() {
+            pendingAddress = read(1) != 0 ? read(2) : -1;
+            pendingValue = read(0);
+        }
+
+        @Override
+        void tock() {
+            if (pendingAddress >= 0) {
+                words[pendingAddress] = pendingValue;
+                pendingAddress = -1;
+                schedule();
+            }
+        }
+
+        @Override
+        boolean hasValue() {
+            return true;
+        }
+
+        @Override
+        int getValue(int index) {
+            checkIndex(index);
+            return words[index];
+        }
+
+        @Override
+        void setValue(int index, int value) {
+            checkIndex(index);
+            words[index] = value & 0xFFFF;
+            schedule();
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= words.length) {
+                throw new IllegalArgumentException(name + "[" + index + "] is out of range");
+            }
+        }
+    }
+
+    static class Rom extends Memory {
+
+        Rom() {
+            super(32768);
+        }
+
+        @Override
+        void tick() {}
+
+        @Override
+        void tock() {}
+
+        // one 16 bit binary word per line, as written by the assembler
+        void load(String path) throws IllegalArgumentException {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(Paths.get(path));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read " + path);
+            }
+            Arrays.fill(words, 0);
+            int address = 0;
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (address == words.length) {
+                    throw new IllegalArgumentException(path + " does not fit in the ROM");
+                }
+                try {
+                    words[address++] = Integer.parseInt(line, 2);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(path + " line " + address + " is not a binary word");
+                }
+            }
+            schedule();
+        }
+    }
+
+    // there is no keyboard to read, scripts can still set Keyboard[] to press a key
+    private static class Keyboard extends Instance {
+        private int key = 0;
+
+        @Override
+        void evaluate() {
+            write(0, key);
+        }
+
+        @Override
+        boolean hasValue() {
+            return true;
+        }
+
+        @Override
+        int getValue(int index) {
+            return key;
+        }
+
+        @Override
+        void setValue(int index, int value) {
+            key = value & 0xFFFF;
+            schedule();
+        }
+    }
+}
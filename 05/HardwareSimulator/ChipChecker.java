@@ -0,0 +1,172 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// checks a combinational chip against the built-in chip of the same name, 64 test vectors per netlist pass
+class ChipChecker {
+
+    // inputs up to 24 bits wide are checked exhaustively by default
+    private static final long DEFAULT_VECTORS = 1L << 24;
+    private static final int LANES = 64;
+
+    // input bit j of vector base + lane for j < 6, base being a multiple of 64
+    private static final long[] LANE_PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+
+    private final Netlist netlist;
+    private final BuiltinChips.Builtin reference;
+    private final int[][] inputSignals;
+    private final int[][] outputSignals;
+    private final int inputBits;
+
+    private ChipChecker(Netlist netlist, BuiltinChips.Builtin reference) throws IllegalArgumentException {
+        this.netlist = netlist;
+        this.reference = reference;
+        ChipDefinition model = reference.chip;
+        inputSignals = new int[model.inputs.size()][];
+        outputSignals = new int[model.outputs.size()][];
+        int bits = 0;
+        for (int pin = 0; pin < inputSignals.length; pin++) {
+            inputSignals[pin] = signals(model.inputs.get(pin));
+            bits += inputSignals[pin].length;
+        }
+        for (int pin = 0; pin < outputSignals.length; pin++) {
+            outputSignals[pin] = signals(model.outputs.get(pin));
+        }
+        inputBits = bits;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: ChipChecker file.hdl [file.hdl ...] [vectors] [seed=N] [time]");
+            return;
+        }
+        long vectors = DEFAULT_VECTORS;
+        long seed = 0;
+        boolean time = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("time")) {
+                time = true;
+            } else if (arg.startsWith("seed=")) {
+                seed = Long.parseLong(arg.substring(5));
+            } else if (arg.endsWith(".hdl")) {
+                files.add(arg);
+            } else {
+                vectors = Long.parseLong(arg);
+            }
+        }
+        for (String file : files) {
+            long startTime = System.nanoTime();
+            String result;
+            try {
+                result = load(file).check(vectors, seed);
+            } catch (IllegalArgumentException e) {
+                result = e.getMessage();
+            }
+            long elapsed = System.nanoTime() - startTime;
+            System.out.println(file + ": " + result + (time ? " (" + elapsed / 1_000_000 + " ms)" : ""));
+        }
+    }
+
+    // parts are looked up next to the chip, then in the earlier numbered projects, so a chip flattens to Nand
+    // gates wherever the course chips it uses have been written
+    static ChipChecker load(String file) throws IllegalArgumentException {
+        File hdl = new File(file).getAbsoluteFile();
+        String name = hdl.getName().replaceAll("\\.hdl$", "");
+        String directory = hdl.getParent();
+        List<String> library = new ArrayList<>();
+        File project = new File(directory);
+        File[] siblings = project.getParentFile() == null ? null : project.getParentFile().listFiles();
+        if (siblings != null && project.getName().matches("\\d+")) {
+            Arrays.sort(siblings);
+            for (int i = siblings.length - 1; i >= 0; i--) {
+                String sibling = siblings[i].getName();
+                if (siblings[i].isDirectory() && sibling.matches("\\d+") && sibling.compareTo(project.getName()) < 0) {
+                    library.add(siblings[i].getPath());
+                }
+            }
+        }
+        BuiltinChips.Builtin reference = BuiltinChips.find(name);
+        if (reference == null || reference.logic == null) {
+            throw new IllegalArgumentException("No combinational built-in " + name + " to check against");
+        }
+        Netlist netlist = Netlist.build(name, directory, library);
+        if (!netlist.isCombinational()) {
+            throw new IllegalArgumentException(name + " is not combinational");
+        }
+        return new ChipChecker(netlist, reference);
+    }
+
+    private int[] signals(ChipDefinition.Pin pin) throws IllegalArgumentException {
+        if (!netlist.hasPin(pin.name) || netlist.pinWidth(pin.name) != pin.width) {
+            throw new IllegalArgumentException(netlist.name + " has no pin " + pin.name + "[" + pin.width + "]");
+        }
+        return netlist.pinSignals(pin.name);
+    }
+
+    // every input combination if there are no more than vectors of them, otherwise vectors random ones
+    String check(long vectors, long seed) throws IllegalArgumentException {
+        boolean exhaustive = inputBits < 63 && 1L << inputBits <= vectors;
+        long total = exhaustive ? 1L << inputBits : vectors;
+        Random random = new Random(seed);
+        long[] lanes = new long[netlist.signalCount()];
+        lanes[Netlist.TRUE] = -1L;
+        int[] in = new int[inputSignals.length];
+        int[] expected = new int[outputSignals.length];
+        for (long base = 0; base < total; base += LANES) {
+            int bit = 0;
+            for (int[] signals : inputSignals) {
+                for (int signal : signals) {
+                    if (!exhaustive) {
+                        lanes[signal] = random.nextLong();
+                    } else if (bit < LANE_PATTERNS.length) {
+                        lanes[signal] = LANE_PATTERNS[bit];
+                    } else {
+                        lanes[signal] = (base >> bit & 1) != 0 ? -1L : 0;
+                    }
+                    bit++;
+                }
+            }
+            netlist.evaluate(lanes);
+            int count = (int) Math.min(LANES, total - base);
+            for (int lane = 0; lane < count; lane++) {
+                for (int pin = 0; pin < in.length; pin++) {
+                    in[pin] = gather(lanes, inputSignals[pin], lane);
+                }
+                reference.logic.evaluate(in, expected);
+                for (int pin = 0; pin < expected.length; pin++) {
+                    int width = outputSignals[pin].length;
+                    int actual = gather(lanes, outputSignals[pin], lane);
+                    if (actual != (expected[pin] & (1 << width) - 1)) {
+                        throw new IllegalArgumentException("Failed on " + describe(reference.chip.inputs, in)
+                                + ": " + reference.chip.outputs.get(pin).name + " is " + actual + " but should be "
+                                + (expected[pin] & (1 << width) - 1));
+                    }
+                }
+            }
+        }
+        return total + (exhaustive ? " vectors, every input combination," : " random vectors") + " passed, "
+                + netlist.gateCount() + " Nand gates and " + netlist.partCount() + " built-in parts";
+    }
+
+    private static int gather(long[] lanes, int[] signals, int lane) {
+        int value = 0;
+        for (int bit = 0; bit < signals.length; bit++) {
+            value |= (int) (lanes[signals[bit]] >>> lane & 1) << bit;
+        }
+        return value;
+    }
+
+    private static String describe(List<ChipDefinition.Pin> pins, int[] values) {
+        StringBuilder description = new StringBuilder();
+        for (int pin = 0; pin < values.length; pin++) {
+            description.append(pin == 0 ? "" : " ").append(pins.get(pin).name).append('=').append(values[pin]);
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// a parsed .hdl chip, parts still refer to other chips by name
+class ChipDefinition {
+
+    final String name;
+    // directory the chip was loaded from, its parts are looked up there first, null for built-in chips
+    final String directory;
+    final List<Pin> inputs = new ArrayList<>();
+    final List<Pin> outputs = new ArrayList<>();
+    final List<Part> parts = new ArrayList<>();
+
+    ChipDefinition(String name, String directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    // pins are numbered inputs first then outputs
+    Pin pin(int index) {
+        return index < inputs.size() ? inputs.get(index) : outputs.get(index - inputs.size());
+    }
+
+    int pinIndex(String pinName) {
+        for (int i = 0; i < inputs.size() + outputs.size(); i++) {
+            if (pin(i).name.equals(pinName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static class Pin {
+        final String name;
+        final int width;
+
+        Pin(String name, int width) {
+            this.name = name;
+            this.width = width;
+        }
+    }
+
+    static class Part {
+        final String chip;
+        final List<Connection> connections = new ArrayList<>();
+
+        Part(String chip) {
+            this.chip = chip;
+        }
+    }
+
+    // pin[pinFrom..pinTo]=target[targetFrom..targetTo], -1 bounds mean the whole pin
+    static class Connection {
+        final String pin;
+        final int pinFrom;
+        final int pinTo;
+        final String target;
+        final int targetFrom;
+        final int targetTo;
+
+        Connection(String pin, int pinFrom, int pinTo, String target, int targetFrom, int targetTo) {
+            this.pin = pin;
+            this.pinFrom = pinFrom;
+            this.pinTo = pinTo;
+            this.target = target;
+            this.targetFrom = targetFrom;
+            this.targetTo = targetTo;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// runs .tst scripts against a Netlist and compares the output with the .cmp file, like the course simulator
+class HardwareSimulator {
+
+    // a while loop waiting on the keyboard would never end without one
+    private static final long MAX_LOOP_ITERATIONS = 1_000_000L;
+
+    private final String directory;
+    private Netlist chip;
+    private int time = 0;
+    private boolean halfCycle = false;
+    private final List<Column> columns = new ArrayList<>();
+    private PrintWriter output;
+    private List<String> compareLines;
+    private int lineNumber = 0;
+
+    private HardwareSimulator(String directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: HardwareSimulator file.tst [file.tst ...] [time]");
+            return;
+        }
+        boolean time = false;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("time")) {
+                time = true;
+            } else {
+                scripts.add(arg);
+            }
+        }
+        int failures = 0;
+        for (String script : scripts) {
+            long startTime = System.nanoTime();
+            String result;
+            try {
+                result = run(script);
+            } catch (IllegalArgumentException e) {
+                result = e.getMessage();
+                failures++;
+            }
+            long elapsed = System.nanoTime() - startTime;
+            System.out.println(script + ": " + result + (time ? " (" + elapsed / 1_000_000 + " ms)" : ""));
+        }
+        if (scripts.size() > 1) {
+            System.out.println((scripts.size() - failures) + " of " + scripts.size() + " scripts passed");
+        }
+    }
+
+    static String run(String script) throws IllegalArgumentException {
+        File file = new File(script);
+        List<Command> commands;
+        try {
+            String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+            commands = parse(tokenize(source));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read " + script);
+        }
+        String directory = file.getAbsoluteFile().getParent();
+        HardwareSimulator simulator = new HardwareSimulator(directory);
+        try {
+            simulator.execute(commands);
+        } finally {
+            if (simulator.output != null) {
+                simulator.output.close();
+            }
+        }
+        if (simulator.compareLines != null && simulator.lineNumber < simulator.compareLines.size()) {
+            throw new IllegalArgumentException("Comparison failure: output ended at line " + simulator.lineNumber);
+        }
+        return simulator.compareLines == null ? "End of script" : "End of script - Comparison ended successfully";
+    }
+
+    private void execute(List<Command> commands) throws IllegalArgumentException {
+        for (Command command : commands) {
+            execute(command);
+        }
+    }
+
+    private void execute(Command command) throws IllegalArgumentException {
+        List<String> words = command.words;
+        switch (words.get(0)) {
+            case "load":
+                chip = load(argument(command, 1));
+                return;
+            case "output-file":
+                try {
+                    output = new PrintWriter(new File(directory, argument(command, 1)), "ISO-8859-1");
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Can't write " + argument(command, 1));
+                }
+                return;
+            case "compare-to":
+                try {
+                    compareLines = Files.readAllLines(Paths.get(directory, argument(command, 1)),
+                            StandardCharsets.ISO_8859_1);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Can't read " + argument(command, 1));
+                }
+                return;
+            case "output-list":
+                columns.clear();
+                for (int i = 1; i < words.size(); i++) {
+                    columns.add(new Column(words.get(i)));
+                }
+                outputHeader();
+                return;
+            case "set":
+                set(argument(command, 1), parseValue(argument(command, 2)));
+                return;
+            case "eval":
+                checkChip().evaluate();
+                return;
+            case "output":
+                outputValues();
+                return;
+            case "tick":
+                checkChip().tick();
+                halfCycle = true;
+                return;
+            case "tock":
+                checkChip().tock();
+                time++;
+                halfCycle = false;
+                return;
+            case "repeat":
+                long count = words.size() > 1 ? Long.parseLong(words.get(1)) : MAX_LOOP_ITERATIONS;
+                for (long i = 0; i < count; i++) {
+                    execute(command.body);
+                }
+                return;
+            case "while":
+                for (long i = 0; condition(command); i++) {
+                    if (i == MAX_LOOP_ITERATIONS) {
+                        throw new IllegalArgumentException("while loop did not end, the Keyboard is never pressed here");
+                    }
+                    execute(command.body);
+                }
+                return;
+            case "echo":
+                System.out.println(argument(command, 1));
+                return;
+            case "clear-echo":
+                return;
+            default:
+                // ROM32K load file.hack
+                if (words.size() == 3 && words.get(1).equals("load")) {
+                    BuiltinChips.Instance part = checkChip().findPart(words.get(0));
+                    if (!(part instanceof BuiltinChips.Rom)) {
+                        throw new IllegalArgumentException(words.get(0) + " is not a ROM of " + chip.name);
+                    }
+                    ((BuiltinChips.Rom) part).load(new File(directory, words.get(2)).getPath());
+                    checkChip().evaluate();
+                    return;
+                }
+                throw new IllegalArgumentException("Unknown command " + words.get(0));
+        }
+    }
+
+    // test scripts sit next to their chips or in a CourseMaterials directory below them
+    private Netlist load(String file) throws IllegalArgumentException {
+        String name = file.endsWith(".hdl") ? file.substring(0, file.length() - 4) : file;
+        String chipDirectory = directory;
+        if (!new File(directory, name + ".hdl").isFile()) {
+            File parent = new File(directory).getParentFile();
+            if (parent != null && new File(parent, name + ".hdl").isFile()) {
+                chipDirectory = parent.getPath();
+            }
+        }
+        time = 0;
+        halfCycle = false;
+        return Netlist.build(name, chipDirectory);
+    }
+
+    private Netlist checkChip() throws IllegalArgumentException {
+        if (chip == null) {
+            throw new IllegalArgumentException("No chip loaded");
+        }
+        return chip;
+    }
+
+    private void set(String name, int value) throws IllegalArgumentException {
+        Netlist chip = checkChip();
+        if (chip.hasPin(name)) {
+            chip.write(name, value);
+            return;
+        }
+        int bracket = name.indexOf('[');
+        if (bracket > 0) {
+            BuiltinChips.Instance part = chip.findPart(name.substring(0, bracket));
+            if (part != null) {
+                part.setValue(index(name, bracket), value & (1 << part.valueWidth()) - 1);
+                return;
+            }
+        }
+        throw new IllegalArgumentException(chip.name + " has no pin " + name);
+    }
+
+    // {value, width} of a pin, a single bit of a pin or a part's internal value
+    private int[] get(String name) throws IllegalArgumentException {
+        Netlist chip = checkChip();
+        if (chip.hasPin(name)) {
+            return new int[] {chip.read(name), chip.pinWidth(name)};
+        }
+        int bracket = name.indexOf('[');
+        if (bracket > 0) {
+            String pinName = name.substring(0, bracket);
+            if (chip.hasPin(pinName)) {
+                return new int[] {chip.read(pinName) >> index(name, bracket) & 1, 1};
+            }
+            BuiltinChips.Instance part = chip.findPart(pinName);
+            if (part != null) {
+                return new int[] {part.getValue(index(name, bracket)), part.valueWidth()};
+            }
+        }
+        throw new IllegalArgumentException(chip.name + " has no pin " + name);
+    }
+
+    // Name[] is index 0
+    private static int index(String name, int bracket) throws IllegalArgumentException {
+        String index = name.substring(bracket + 1, name.length() - 1);
+        try {
+            return index.isEmpty() ? 0 : Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad index in " + name);
+        }
+    }
+
+    // decimal, or %B, %X and %D prefixed
+    private static int parseValue(String value) throws IllegalArgumentException {
+        try {
+            if (value.startsWith("%B")) {
+                return Integer.parseInt(value.substring(2), 2);
+            } else if (value.startsWith("%X")) {
+                return Integer.parseInt(value.substring(2), 16);
+            } else if (value.startsWith("%D")) {
+                return Integer.parseInt(value.substring(2));
+            }
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value + " is not a value");
+        }
+    }
+
+    // name op value, compared as signed 16 bit numbers
+    private boolean condition(Command command) throws IllegalArgumentException {
+        int[] pin = get(argument(command, 1));
+        int left = signed(pin[0], pin[1]);
+        int right = parseValue(argument(command, 3));
+        switch (argument(command, 2)) {
+            case "=": return left == right;
+            case "<>": return left != right;
+            case "<": return left < right;
+            case ">": return left > right;
+            case "<=": return left <= right;
+            case ">=": return left >= right;
+            default: throw new IllegalArgumentException("Unknown comparison " + argument(command, 2));
+        }
+    }
+
+    private static int signed(int value, int width) {
+        return width == 16 ? (short) value : value;
+    }
+
+    private static String argument(Command command, int index) throws IllegalArgumentException {
+        if (index >= command.words.size()) {
+            throw new IllegalArgumentException(command.words.get(0) + " is missing an argument");
+        }
+        return command.words.get(index);
+    }
+
+    private void outputHeader() throws IllegalArgumentException {
+        StringBuilder line = new StringBuilder("|");
+        for (Column column : columns) {
+            int width = column.left + column.width + column.right;
+            String name = column.name.length() > width ? column.name.substring(0, width) : column.name;
+            int left = (width - name.length()) / 2;
+            line.append(spaces(left)).append(name).append(spaces(width - left - name.length())).append('|');
+        }
+        outputLine(line.toString());
+    }
+
+    private void outputValues() throws IllegalArgumentException {
+        StringBuilder line = new StringBuilder("|");
+        for (Column column : columns) {
+            String value;
+            if (column.name.equals("time")) {
+                value = time + (halfCycle ? "+" : "");
+            } else {
+                int[] pin = get(column.name);
+                value = format(pin[0], pin[1], column.format, column.width);
+            }
+            line.append(spaces(column.left)).append(pad(value, column.width, column.format != 'S'))
+                    .append(spaces(column.right)).append('|');
+        }
+        outputLine(line.toString());
+    }
+
+    private static String format(int value, int width, char format, int digits) {
+        switch (format) {
+            case 'B':
+                StringBuilder bits = new StringBuilder();
+                for (int i = digits - 1; i >= 0; i--) {
+                    bits.append(i < 32 ? value >> i & 1 : 0);
+                }
+                return bits.toString();
+            case 'X':
+                String hex = Integer.toHexString(value & (1 << width) - 1).toUpperCase();
+                return spaces(digits - hex.length()).replace(' ', '0') + hex;
+            default:
+                return String.valueOf(signed(value, width));
+        }
+    }
+
+    private static String pad(String value, int width, boolean right) {
+        if (value.length() >= width) {
+            return value.substring(0, width);
+        }
+        return right ? spaces(width - value.length()) + value : value + spaces(width - value.length());
+    }
+
+    private static String spaces(int count) {
+        StringBuilder spaces = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            spaces.append(' ');
+        }
+        return spaces.toString();
+    }
+
+    // '*' in the compare file matches any character
+    private void outputLine(String line) throws IllegalArgumentException {
+        if (output != null) {
+            output.println(line);
+        }
+        lineNumber++;
+        if (compareLines == null) {
+            return;
+        }
+        if (lineNumber > compareLines.size() || !matches(line, compareLines.get(lineNumber - 1))) {
+            throw new IllegalArgumentException("Comparison failure at line " + lineNumber);
+        }
+    }
+
+    private static boolean matches(String line, String expected) {
+        expected = expected.replace("\r", "");
+        if (line.length() != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            if (expected.charAt(i) != '*' && expected.charAt(i) != line.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // an output-list entry, name%Fleft.width.right with %B1.w.1 for a w bit pin by default
+    private class Column {
+        final String name;
+        final char format;
+        final int left;
+        final int width;
+        final int right;
+
+        Column(String spec) throws IllegalArgumentException {
+            int percent = spec.indexOf('%');
+            if (percent < 0) {
+                name = spec;
+                format = 'B';
+                left = 1;
+                width = name.equals("time") ? 4 : get(name)[1];
+                right = 1;
+                return;
+            }
+            name = spec.substring(0, percent);
+            format = spec.charAt(percent + 1);
+            String[] sizes = spec.substring(percent + 2).split("\\.");
+            if (sizes.length != 3 || "BDXS".indexOf(format) < 0) {
+                throw new IllegalArgumentException("Bad output format " + spec);
+            }
+            left = Integer.parseInt(sizes[0]);
+            width = Integer.parseInt(sizes[1]);
+            right = Integer.parseInt(sizes[2]);
+        }
+    }
+
+    // one script command, repeat and while carry the commands of their block
+    private static class Command {
+        final List<String> words = new ArrayList<>();
+        List<Command> body;
+    }
+
+    private static List<Command> parse(List<String> tokens) throws IllegalArgumentException {
+        int[] position = {0};
+        List<Command> commands = parseBlock(tokens, position);
+        if (position[0] < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected " + tokens.get(position[0]));
+        }
+        return commands;
+    }
+
+    private static List<Command> parseBlock(List<String> tokens, int[] position) throws IllegalArgumentException {
+        List<Command> commands = new ArrayList<>();
+        Command command = new Command();
+        while (position[0] < tokens.size()) {
+            String token = tokens.get(position[0]++);
+            if (token.equals("}")) {
+                position[0]--;
+                break;
+            }
+            if (token.equals(",") || token.equals(";")) {
+                if (!command.words.isEmpty()) {
+                    commands.add(command);
+                    command = new Command();
+                }
+            } else if (token.equals("{")) {
+                command.body = parseBlock(tokens, position);
+                if (position[0] >= tokens.size()) {
+                    throw new IllegalArgumentException("Missing } after " + command.words.get(0));
+                }
+                position[0]++;
+                commands.add(command);
+                command = new Command();
+            } else {
+                command.words.add(token);
+            }
+        }
+        if (!command.words.isEmpty()) {
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    // words, quoted strings without their quotes, and the , ; { } separators
+    private static List<String> tokenize(String source) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c <= ' ') {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+            } else if (c == '"') {
+                int end = source.indexOf('"', i + 1);
+                end = end < 0 ? source.length() : end;
+                tokens.add(source.substring(i + 1, end));
+                i = end + 1;
+            } else if (",;{}".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                while (i < source.length() && source.charAt(i) > ' ' && ",;{}".indexOf(source.charAt(i)) < 0
+                        && !source.startsWith("//", i)) {
+                    i++;
+                }
+                tokens.add(source.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
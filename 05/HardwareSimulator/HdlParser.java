@@ -0,0 +1,200 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// reads .hdl chip files, a chip not found as a file is left to BuiltinChips
+class HdlParser {
+
+    private static final Map<String, ChipDefinition> cache = new HashMap<>();
+
+    private final String source;
+    private final String file;
+    private int position = 0;
+
+    private HdlParser(String source, String file) {
+        this.source = source;
+        this.file = file;
+    }
+
+    // the chip from directory/name.hdl, or null if there is no such file
+    static ChipDefinition load(String name, String directory) throws IllegalArgumentException {
+        File file = new File(directory, name + ".hdl");
+        String path = file.getPath();
+        if (cache.containsKey(path)) {
+            return cache.get(path);
+        }
+        ChipDefinition chip = null;
+        if (file.isFile()) {
+            try {
+                String source = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.ISO_8859_1);
+                chip = new HdlParser(source, path).parseChip(directory);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't read " + path);
+            }
+        }
+        cache.put(path, chip);
+        return chip;
+    }
+
+    private ChipDefinition parseChip(String directory) throws IllegalArgumentException {
+        expect("CHIP");
+        ChipDefinition chip = new ChipDefinition(nextToken(), directory);
+        expect("{");
+        String token = nextToken();
+        if (token.equals("IN")) {
+            parsePins(chip.inputs);
+            token = nextToken();
+        }
+        if (token.equals("OUT")) {
+            parsePins(chip.outputs);
+            token = nextToken();
+        }
+        if (!token.equals("PARTS")) {
+            throw syntaxError("Expected PARTS but found " + token);
+        }
+        expect(":");
+        for (token = nextToken(); !token.equals("}"); token = nextToken()) {
+            chip.parts.add(parsePart(token));
+        }
+        return chip;
+    }
+
+    private void parsePins(List<ChipDefinition.Pin> pins) throws IllegalArgumentException {
+        while (true) {
+            String name = nextToken();
+            int width = 1;
+            String token = nextToken();
+            if (token.equals("[")) {
+                width = parseNumber();
+                expect("]");
+                token = nextToken();
+            }
+            pins.add(new ChipDefinition.Pin(name, width));
+            if (token.equals(";")) {
+                return;
+            }
+            if (!token.equals(",")) {
+                throw syntaxError("Expected , or ; after pin " + name);
+            }
+        }
+    }
+
+    private ChipDefinition.Part parsePart(String chipName) throws IllegalArgumentException {
+        ChipDefinition.Part part = new ChipDefinition.Part(chipName);
+        expect("(");
+        while (true) {
+            String pin = nextToken();
+            int[] pinRange = parseRange();
+            expect("=");
+            String target = nextToken();
+            int[] targetRange = parseRange();
+            part.connections.add(new ChipDefinition.Connection(pin, pinRange[0], pinRange[1],
+                    target, targetRange[0], targetRange[1]));
+            String token = nextToken();
+            if (token.equals(")")) {
+                break;
+            }
+            if (!token.equals(",")) {
+                throw syntaxError("Expected , or ) in part " + chipName);
+            }
+        }
+        expect(";");
+        return part;
+    }
+
+    // [n] or [n..m] if present, {-1, -1} otherwise
+    private int[] parseRange() throws IllegalArgumentException {
+        if (!peekToken().equals("[")) {
+            return new int[] {-1, -1};
+        }
+        nextToken();
+        int from = parseNumber();
+        int to = from;
+        if (peekToken().equals("..")) {
+            nextToken();
+            to = parseNumber();
+        }
+        expect("]");
+        return new int[] {from, to};
+    }
+
+    private int parseNumber() throws IllegalArgumentException {
+        String token = nextToken();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw syntaxError(token + " is not a number");
+        }
+    }
+
+    private void expect(String expected) throws IllegalArgumentException {
+        String token = nextToken();
+        if (!token.equals(expected)) {
+            throw syntaxError("Expected " + expected + " but found " + token);
+        }
+    }
+
+    private String peekToken() {
+        int saved = position;
+        String token = nextToken();
+        position = saved;
+        return token;
+    }
+
+    // names may contain '-' as in Not-15, ".." and single symbols are their own tokens
+    private String nextToken() throws IllegalArgumentException {
+        skipSpaceAndComments();
+        if (position >= source.length()) {
+            throw syntaxError("Unexpected end of file");
+        }
+        char c = source.charAt(position);
+        if (Character.isLetterOrDigit(c) || c == '_') {
+            int start = position;
+            while (position < source.length() && isNameChar(source.charAt(position))) {
+                position++;
+            }
+            return source.substring(start, position);
+        }
+        if (source.startsWith("..", position)) {
+            position += 2;
+            return "..";
+        }
+        position++;
+        return String.valueOf(c);
+    }
+
+    private void skipSpaceAndComments() {
+        while (position < source.length()) {
+            if (source.charAt(position) <= ' ') {
+                position++;
+            } else if (source.startsWith("//", position)) {
+                int end = source.indexOf('\n', position);
+                position = end < 0 ? source.length() : end;
+            } else if (source.startsWith("/*", position)) {
+                int end = source.indexOf("*/", position + 2);
+                position = end < 0 ? source.length() : end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        int line = 1;
+        for (int i = 0; i < position && i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new IllegalArgumentException(file + " line " + line + ": " + message);
+    }
+}
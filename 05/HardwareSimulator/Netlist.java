@@ -0,0 +1,587 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// a chip flattened into Nand gates, flip-flops and built-in parts wired by numbered signals.
+// nodes are levelised once, then evaluate() only revisits nodes whose inputs changed, in level order
+class Netlist {
+
+    // constant signals, every other signal starts at 0
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+
+    final String name;
+    // one 0/1 value per signal
+    int[] values;
+
+    private final Map<String, int[]> pins = new HashMap<>();
+
+    // Nand gates are nodes 0 to nandCount - 1, built-in parts follow
+    private IntList nandA = new IntList();
+    private IntList nandB = new IntList();
+    private IntList nandOut = new IntList();
+    private int nandCount;
+
+    // DFF copies in to next on a tick and next to out on a tock
+    private IntList dffIn = new IntList();
+    private IntList dffOut = new IntList();
+    private int[] dffNext;
+
+    private final List<BuiltinChips.Instance> instanceList = new ArrayList<>();
+    private final List<boolean[]> combinationalList = new ArrayList<>();
+    private BuiltinChips.Instance[] instances;
+    // the instances with a tick and a tock
+    private BuiltinChips.Instance[] clocked;
+
+    // union find while building, signals merged by a wire share one root
+    private IntList parent = new IntList();
+
+    private int[] level;
+    // every node after the nodes driving it
+    private int[] order;
+    private boolean[] dirty;
+    private int[][] buckets;
+    private int[] bucketSizes;
+    private int lowestDirty;
+    // nodes reading each signal, fanout[fanoutStart[s]] to fanout[fanoutStart[s + 1] - 1]
+    private int[] fanoutStart;
+    private int[] fanout;
+
+    // directories searched after a chip's own one, before falling back to the built-in chips
+    private final List<String> library;
+
+    private Netlist(String name, List<String> library) {
+        this.name = name;
+        this.library = library;
+        newSignal();
+        newSignal();
+    }
+
+    // looks for name.hdl in directory, falling back to the built-in chip of that name
+    static Netlist build(String name, String directory) throws IllegalArgumentException {
+        return build(name, directory, new ArrayList<>());
+    }
+
+    static Netlist build(String name, String directory, List<String> library) throws IllegalArgumentException {
+        Netlist netlist = new Netlist(name, library);
+        ChipDefinition chip = netlist.resolve(name, directory);
+        int[][] pinSignals = netlist.newPins(chip);
+        netlist.instantiate(chip, pinSignals);
+        for (int pin = 0; pin < pinSignals.length; pin++) {
+            netlist.pins.put(chip.pin(pin).name, pinSignals[pin]);
+        }
+        netlist.link(chip);
+        return netlist;
+    }
+
+    private ChipDefinition resolve(String name, String directory) throws IllegalArgumentException {
+        ChipDefinition chip = HdlParser.load(name, directory);
+        if (chip != null) {
+            return chip;
+        }
+        for (String libraryDirectory : library) {
+            chip = HdlParser.load(name, libraryDirectory);
+            if (chip != null) {
+                return chip;
+            }
+        }
+        BuiltinChips.Builtin builtin = BuiltinChips.find(name);
+        if (builtin == null) {
+            throw new IllegalArgumentException("Chip " + name + " not found in " + directory);
+        }
+        return builtin.chip;
+    }
+
+    int gateCount() {
+        return nandCount;
+    }
+
+    int flipFlopCount() {
+        return dffOut.size;
+    }
+
+    int partCount() {
+        return instances.length;
+    }
+
+    int levelCount() {
+        return buckets.length;
+    }
+
+    int signalCount() {
+        return values.length;
+    }
+
+    // no flip-flops and no clocked parts
+    boolean isCombinational() {
+        return dffNext.length == 0 && clocked.length == 0;
+    }
+
+    int[] pinSignals(String pinName) {
+        return pins.get(pinName);
+    }
+
+    boolean hasPin(String pinName) {
+        return pins.containsKey(pinName);
+    }
+
+    int pinWidth(String pinName) {
+        return pins.get(pinName).length;
+    }
+
+    int read(String pinName) {
+        int[] signals = pins.get(pinName);
+        int value = 0;
+        for (int i = 0; i < signals.length; i++) {
+            value |= values[signals[i]] << i;
+        }
+        return value;
+    }
+
+    // takes effect on the next evaluate
+    void write(String pinName, int value) {
+        int[] signals = pins.get(pinName);
+        for (int i = 0; i < signals.length; i++) {
+            set(signals[i], value >> i & 1);
+        }
+    }
+
+    // the first built-in part of that chip, searching the parts in the order they were declared
+    BuiltinChips.Instance findPart(String chipName) {
+        for (BuiltinChips.Instance instance : instances) {
+            if (instance.name.equals(chipName) && instance.hasValue()) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    void evaluate() {
+        int[] values = this.values;
+        for (int l = lowestDirty; l < buckets.length; l++) {
+            int[] bucket = buckets[l];
+            // nodes only schedule nodes on later levels, so the bucket is complete here
+            for (int i = 0; i < bucketSizes[l]; i++) {
+                int node = bucket[i];
+                dirty[node] = false;
+                if (node < nandCount) {
+                    set(nandOut.items[node], 1 - (values[nandA.items[node]] & values[nandB.items[node]]));
+                } else {
+                    instances[node - nandCount].evaluate();
+                }
+            }
+            bucketSizes[l] = 0;
+        }
+        lowestDirty = buckets.length;
+    }
+
+    // 64 independent copies of the chip, one per bit of each signal's long, all nodes in level order.
+    // the caller fills in the input signals, lanes[TRUE] must be all ones
+    void evaluate(long[] lanes) {
+        int[] order = this.order;
+        int[] nandA = this.nandA.items;
+        int[] nandB = this.nandB.items;
+        int[] nandOut = this.nandOut.items;
+        for (int node : order) {
+            if (node < nandCount) {
+                lanes[nandOut[node]] = ~(lanes[nandA[node]] & lanes[nandB[node]]);
+            } else {
+                instances[node - nandCount].evaluate(lanes);
+            }
+        }
+    }
+
+    void tick() {
+        evaluate();
+        for (int i = 0; i < dffNext.length; i++) {
+            dffNext[i] = values[dffIn.items[i]];
+        }
+        for (BuiltinChips.Instance instance : clocked) {
+            instance.tick();
+        }
+        evaluate();
+    }
+
+    void tock() {
+        for (int i = 0; i < dffNext.length; i++) {
+            set(dffOut.items[i], dffNext[i]);
+        }
+        for (BuiltinChips.Instance instance : clocked) {
+            instance.tock();
+        }
+        evaluate();
+    }
+
+    void set(int signal, int value) {
+        if (values[signal] == value) {
+            return;
+        }
+        values[signal] = value;
+        for (int i = fanoutStart[signal]; i < fanoutStart[signal + 1]; i++) {
+            schedule(fanout[i]);
+        }
+    }
+
+    void schedule(int node) {
+        if (dirty[node]) {
+            return;
+        }
+        dirty[node] = true;
+        int l = level[node];
+        buckets[l][bucketSizes[l]++] = node;
+        if (l < lowestDirty) {
+            lowestDirty = l;
+        }
+    }
+
+    // signals of each pin, inputs first then outputs
+    private int[][] newPins(ChipDefinition chip) {
+        int[][] pinSignals = new int[chip.inputs.size() + chip.outputs.size()][];
+        for (int pin = 0; pin < pinSignals.length; pin++) {
+            pinSignals[pin] = newSignals(chip.pin(pin).width);
+        }
+        return pinSignals;
+    }
+
+    private void instantiate(ChipDefinition chip, int[][] pinSignals) throws IllegalArgumentException {
+        if (chip.directory != null) {
+            instantiateParts(chip, pinSignals);
+        } else if (chip.name.equals("Nand")) {
+            nandA.add(pinSignals[0][0]);
+            nandB.add(pinSignals[1][0]);
+            nandOut.add(pinSignals[2][0]);
+        } else if (chip.name.equals("DFF")) {
+            dffIn.add(pinSignals[0][0]);
+            dffOut.add(pinSignals[1][0]);
+        } else {
+            BuiltinChips.Builtin builtin = BuiltinChips.find(chip.name);
+            BuiltinChips.Instance instance = builtin.create();
+            instance.netlist = this;
+            instance.pins = pinSignals;
+            instanceList.add(instance);
+            combinationalList.add(builtin.combinational);
+        }
+    }
+
+    private void instantiateParts(ChipDefinition chip, int[][] pinSignals) throws IllegalArgumentException {
+        // internal wires take their width from the first part pin connected to them
+        Map<String, int[]> wires = new HashMap<>();
+        for (int pin = 0; pin < pinSignals.length; pin++) {
+            wires.put(chip.pin(pin).name, pinSignals[pin]);
+        }
+        for (ChipDefinition.Part part : chip.parts) {
+            ChipDefinition partChip = resolve(part.chip, chip.directory);
+            int[][] partPins = newPins(partChip);
+            boolean[][] connected = new boolean[partChip.inputs.size()][];
+            for (ChipDefinition.Connection connection : part.connections) {
+                int pin = partChip.pinIndex(connection.pin);
+                if (pin < 0) {
+                    throw new IllegalArgumentException(where(chip, part, connection) + ": " + part.chip + " has no pin " + connection.pin);
+                }
+                int[] pinBits = range(partPins[pin], connection.pinFrom, connection.pinTo, chip, part, connection);
+                int[] targetBits;
+                if (connection.target.equals("true") || connection.target.equals("false")) {
+                    targetBits = new int[pinBits.length];
+                    Arrays.fill(targetBits, connection.target.equals("true") ? TRUE : FALSE);
+                } else {
+                    int[] wire = wires.get(connection.target);
+                    if (wire == null) {
+                        if (connection.targetFrom >= 0) {
+                            throw new IllegalArgumentException(where(chip, part, connection) + ": sub bus of an internal pin");
+                        }
+                        wire = newSignals(pinBits.length);
+                        wires.put(connection.target, wire);
+                    }
+                    targetBits = range(wire, connection.targetFrom, connection.targetTo, chip, part, connection);
+                }
+                if (targetBits.length != pinBits.length) {
+                    throw new IllegalArgumentException(where(chip, part, connection) + ": connects " + pinBits.length
+                            + " bits to " + targetBits.length + " bits");
+                }
+                for (int i = 0; i < pinBits.length; i++) {
+                    union(pinBits[i], targetBits[i]);
+                }
+                if (pin < connected.length) {
+                    if (connected[pin] == null) {
+                        connected[pin] = new boolean[partPins[pin].length];
+                    }
+                    int from = connection.pinFrom < 0 ? 0 : connection.pinFrom;
+                    for (int i = 0; i < pinBits.length; i++) {
+                        connected[pin][from + i] = true;
+                    }
+                }
+            }
+            // unconnected inputs read false
+            for (int pin = 0; pin < connected.length; pin++) {
+                for (int i = 0; i < partPins[pin].length; i++) {
+                    if (connected[pin] == null || !connected[pin][i]) {
+                        union(partPins[pin][i], FALSE);
+                    }
+                }
+            }
+            instantiate(partChip, partPins);
+        }
+    }
+
+    private static int[] range(int[] signals, int from, int to, ChipDefinition chip, ChipDefinition.Part part,
+                               ChipDefinition.Connection connection) throws IllegalArgumentException {
+        if (from < 0) {
+            return signals;
+        }
+        if (from > to || to >= signals.length) {
+            throw new IllegalArgumentException(where(chip, part, connection) + ": [" + from + ".." + to + "] is out of range");
+        }
+        return Arrays.copyOfRange(signals, from, to + 1);
+    }
+
+    private static String where(ChipDefinition chip, ChipDefinition.Part part, ChipDefinition.Connection connection) {
+        return chip.name + ": " + part.chip + "(" + connection.pin + "=" + connection.target + ")";
+    }
+
+    private int newSignal() {
+        parent.add(parent.size);
+        return parent.size - 1;
+    }
+
+    private int[] newSignals(int width) {
+        int[] signals = new int[width];
+        for (int i = 0; i < width; i++) {
+            signals[i] = newSignal();
+        }
+        return signals;
+    }
+
+    private int find(int signal) {
+        int[] parent = this.parent.items;
+        int root = signal;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        while (parent[signal] != root) {
+            int next = parent[signal];
+            parent[signal] = root;
+            signal = next;
+        }
+        return root;
+    }
+
+    // the lower numbered root wins so the constants stay constants
+    private void union(int a, int b) throws IllegalArgumentException {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (rootA <= TRUE && rootB <= TRUE) {
+            throw new IllegalArgumentException(name + ": true and false are connected");
+        }
+        if (rootA < rootB) {
+            parent.items[rootB] = rootA;
+        } else {
+            parent.items[rootA] = rootB;
+        }
+    }
+
+    // numbers the merged signals densely, then orders the nodes by level
+    private void link(ChipDefinition chip) throws IllegalArgumentException {
+        int[] index = new int[parent.size];
+        Arrays.fill(index, -1);
+        int signalCount = 0;
+        for (int signal = 0; signal < parent.size; signal++) {
+            int root = find(signal);
+            if (index[root] < 0) {
+                index[root] = signalCount++;
+            }
+            index[signal] = index[root];
+        }
+        parent = null;
+        values = new int[signalCount];
+        values[TRUE] = 1;
+
+        nandCount = nandA.size;
+        nandA.remap(index);
+        nandB.remap(index);
+        nandOut.remap(index);
+        dffIn.remap(index);
+        dffOut.remap(index);
+        dffNext = new int[dffOut.size];
+        instances = instanceList.toArray(new BuiltinChips.Instance[0]);
+        clocked = instanceList.stream().filter(BuiltinChips.Instance::isClocked).toArray(BuiltinChips.Instance[]::new);
+        for (int i = 0; i < instances.length; i++) {
+            instances[i].node = nandCount + i;
+            for (int[] pin : instances[i].pins) {
+                for (int bit = 0; bit < pin.length; bit++) {
+                    pin[bit] = index[pin[bit]];
+                }
+            }
+        }
+        for (int[] signals : pins.values()) {
+            for (int bit = 0; bit < signals.length; bit++) {
+                signals[bit] = index[signals[bit]];
+            }
+        }
+
+        int nodeCount = nandCount + instances.length;
+        int[] driver = new int[signalCount];
+        Arrays.fill(driver, -1);
+        for (int node = 0; node < nandCount; node++) {
+            drive(driver, nandOut.items[node], node, chip);
+        }
+        for (int i = 0; i < dffOut.size; i++) {
+            drive(driver, dffOut.items[i], nodeCount, chip);
+        }
+        for (ChipDefinition.Pin input : chip.inputs) {
+            for (int signal : pins.get(input.name)) {
+                drive(driver, signal, nodeCount, chip);
+            }
+        }
+        for (int i = 0; i < instances.length; i++) {
+            int[][] instancePins = instances[i].pins;
+            for (int pin = combinationalList.get(i).length; pin < instancePins.length; pin++) {
+                for (int signal : instancePins[pin]) {
+                    drive(driver, signal, nandCount + i, chip);
+                }
+            }
+        }
+
+        // fanout edges from each signal to the nodes that read it without a clock in between
+        fanoutStart = new int[signalCount + 1];
+        for (int node = 0; node < nandCount; node++) {
+            fanoutStart[nandA.items[node] + 1]++;
+            fanoutStart[nandB.items[node] + 1]++;
+        }
+        for (int i = 0; i < instances.length; i++) {
+            boolean[] combinational = combinationalList.get(i);
+            for (int pin = 0; pin < combinational.length; pin++) {
+                if (combinational[pin]) {
+                    for (int signal : instances[i].pins[pin]) {
+                        fanoutStart[signal + 1]++;
+                    }
+                }
+            }
+        }
+        for (int signal = 0; signal < signalCount; signal++) {
+            fanoutStart[signal + 1] += fanoutStart[signal];
+        }
+        fanout = new int[fanoutStart[signalCount]];
+        int[] next = Arrays.copyOf(fanoutStart, signalCount);
+        int[] inputCount = new int[nodeCount];
+        for (int node = 0; node < nandCount; node++) {
+            fanout[next[nandA.items[node]]++] = node;
+            fanout[next[nandB.items[node]]++] = node;
+        }
+        for (int i = 0; i < instances.length; i++) {
+            boolean[] combinational = combinationalList.get(i);
+            for (int pin = 0; pin < combinational.length; pin++) {
+                if (combinational[pin]) {
+                    for (int signal : instances[i].pins[pin]) {
+                        fanout[next[signal]++] = nandCount + i;
+                    }
+                }
+            }
+        }
+        for (int signal = 0; signal < signalCount; signal++) {
+            if (driver[signal] >= 0 && driver[signal] < nodeCount) {
+                for (int i = fanoutStart[signal]; i < fanoutStart[signal + 1]; i++) {
+                    inputCount[fanout[i]]++;
+                }
+            }
+        }
+
+        // Kahn's algorithm, a node's level is one more than the deepest node driving it
+        level = new int[nodeCount];
+        int[] queue = order = new int[nodeCount];
+        int queueEnd = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (inputCount[node] == 0) {
+                queue[queueEnd++] = node;
+            }
+        }
+        int levels = 0;
+        for (int head = 0; head < queueEnd; head++) {
+            int node = queue[head];
+            levels = Math.max(levels, level[node] + 1);
+            if (node < nandCount) {
+                queueEnd = release(node, nandOut.items[node], queue, queueEnd, inputCount);
+            } else {
+                int[][] instancePins = instances[node - nandCount].pins;
+                for (int pin = combinationalList.get(node - nandCount).length; pin < instancePins.length; pin++) {
+                    for (int signal : instancePins[pin]) {
+                        queueEnd = release(node, signal, queue, queueEnd, inputCount);
+                    }
+                }
+            }
+        }
+        if (queueEnd < nodeCount) {
+            throw new IllegalArgumentException(name + " has a combinational loop");
+        }
+
+        int[] levelSizes = new int[levels];
+        for (int node = 0; node < nodeCount; node++) {
+            levelSizes[level[node]]++;
+        }
+        buckets = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+            buckets[l] = new int[levelSizes[l]];
+        }
+        bucketSizes = new int[levels];
+        dirty = new boolean[nodeCount];
+        lowestDirty = levels;
+
+        nandA.trim();
+        nandB.trim();
+        nandOut.trim();
+        dffIn.trim();
+        dffOut.trim();
+        instanceList.clear();
+
+        // settle every gate once so outputs of constant inputs are right before the first eval
+        for (int node = 0; node < nodeCount; node++) {
+            schedule(node);
+        }
+        evaluate();
+    }
+
+    private void drive(int[] driver, int signal, int node, ChipDefinition chip) throws IllegalArgumentException {
+        if (signal <= TRUE || driver[signal] != -1) {
+            throw new IllegalArgumentException(chip.name + ": a signal has more than one source");
+        }
+        driver[signal] = node;
+    }
+
+    private int release(int node, int signal, int[] queue, int queueEnd, int[] inputCount) {
+        for (int i = fanoutStart[signal]; i < fanoutStart[signal + 1]; i++) {
+            int reader = fanout[i];
+            level[reader] = Math.max(level[reader], level[node] + 1);
+            if (--inputCount[reader] == 0) {
+                queue[queueEnd++] = reader;
+            }
+        }
+        return queueEnd;
+    }
+
+    // growable int array, the netlist of a RAM16K built from gates has millions of entries
+    private static class IntList {
+        int[] items = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+
+        void remap(int[] index) {
+            for (int i = 0; i < size; i++) {
+                items[i] = index[items[i]];
+            }
+        }
+
+        void trim() {
+            items = Arrays.copyOf(items, size);
+        }
+    }
+}
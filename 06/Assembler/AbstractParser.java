@@ -1,16 +1,15 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
 
 abstract class AbstractParser {
 
-    protected Scanner reader = null;
+    protected SourceReader reader = null;
 
     AbstractParser(String file) {
         try {
-            this.reader = new Scanner(new File(file));
-        } catch (FileNotFoundException fnf) {
+            this.reader = SourceReader.open(file);
+        } catch (IOException e) {
             System.out.println("ERROR: No file " + file);
+            this.reader = SourceReader.empty();
         }
     }
 
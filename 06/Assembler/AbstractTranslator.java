@@ -1,21 +1,32 @@
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 abstract class AbstractTranslator {
 
+    // options that change how a translation runs but not what it writes
+    private static final Set<String> RUN_OPTIONS = new HashSet<>(Arrays.asList("time", "parallel", "cache"));
+
+    private Set<String> options = Collections.emptySet();
+    private BuildCache cache;
+
     protected void run(String[] args) {
         String filePath = args.length != 0 ? args[0] : null;
 
-        boolean debug = args.length > 1 && args[1].equals("t");
+        // translators are singletons, a run doesn't keep the previous run's cache or options
+        cache = null;
+        // any arguments after the file path are treated as options
+        options = args.length > 1 ? new HashSet<>(Arrays.asList(args).subList(1, args.length)) : Collections.emptySet();
+        boolean debug = hasOption("t");
+        long startTime = System.nanoTime();
 
         if (filePath == null) {
             System.out.println(getFileNullMessage());
@@ -29,49 +40,196 @@ abstract class AbstractTranslator {
             return;
         }
 
-        List<String> translatedOutput = new ArrayList<>();
-        translatedOutput.addAll(preTranslation());
+        prepare(filePaths);
 
-        for (String path : filePaths) {
-            List<String> fileOutput;
+        if (hasOption("cache") && !canCache()) {
+            System.out.println("The cache can't be used with these options, translating without it");
+        } else if (hasOption("cache")) {
             try {
-                preFileValidation(path);
-                preFileProcessing(path);
-                fileOutput = translate(path, debug);
-            } catch (IllegalArgumentException e) {
-                System.out.println("File: " + path + "\n---Error: " + e.getMessage());
-                return;
+                cache = openCache(filePath);
+            } catch (UncheckedIOException e) {
+                System.out.println("Can't create " + BuildCache.DIRECTORY + ", translating without the cache");
             }
-            translatedOutput.addAll(fileOutput);
+        }
 
-            if (!combineOutput()) {
-                writeOutputFile(newFileName(path), translatedOutput);
-                translatedOutput.clear();
+        if (hasOption("parallel") && canTranslateInParallel()) {
+            if (combineOutput()) {
+                translateCombinedInParallel(filePath, filePaths, debug);
+            } else {
+                translateInParallel(filePaths, debug);
             }
+        } else if (!translateInOrder(filePath, filePaths, debug)) {
+            return;
         }
 
-        if (combineOutput()) {
-            writeOutputFile(newFileName(filePath), translatedOutput);
+        if (cache != null) {
+            System.out.println("Cache: " + cache.getHits() + " hit(s), " + cache.getMisses() + " miss(es)");
+        }
+        if (hasOption("time")) {
+            System.out.println("Translated " + filePaths.size() + " file(s) in " +
+                    (System.nanoTime() - startTime) / 1_000_000 + " ms");
         }
     }
 
-    private String newFileName(String filePath) {
-        if (hasValidExtension(filePath)) {
-            return filePath.replace(getOldExtension(), getNewExtension());
+    // returns false if translation stopped on an error
+    private boolean translateInOrder(String filePath, List<String> filePaths, boolean debug) {
+        OutputSink output = null;
+        String outFileName = newFileName(filePath);
+        try {
+            if (combineOutput()) {
+                output = openOutputFile(outFileName);
+            }
+
+            for (String path : filePaths) {
+                if (!combineOutput()) {
+                    outFileName = newFileName(path);
+                    output = openOutputFile(outFileName);
+                }
+                try {
+                    translateFile(path, debug, output);
+                } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                    System.out.println("File: " + path + "\n---Error: " + e.getMessage());
+                    output.discard();
+                    return false;
+                }
+
+                if (!combineOutput()) {
+                    closeOutputFile(output);
+                }
+            }
+
+            if (combineOutput()) {
+                closeOutputFile(output);
+            }
+        } catch (UncheckedIOException e) {
+            System.out.println("Error writing to file " + outFileName);
+            if (output != null) {
+                output.discard();
+            }
+            return false;
         }
-        return filePath + getNewExtension();
+        return true;
+    }
+
+    // files are translated on the common fork join pool, messages are reported in file order once all finish
+    private void translateInParallel(List<String> filePaths, boolean debug) {
+        List<String> messages = filePaths.parallelStream()
+                .map(path -> translateSeparately(path, debug))
+                .collect(Collectors.toList());
+        messages.forEach(System.out::println);
     }
 
-    private void writeOutputFile(String outFileName, List<String> outputLines) {
-        Path fileOut = Paths.get(outFileName);
+    // files are translated concurrently into memory, then appended to the single output in file order
+    private void translateCombinedInParallel(String filePath, List<String> filePaths, boolean debug) {
+        Map<String, String> errors = new ConcurrentHashMap<>();
+        List<OutputSink> fileOutputs = filePaths.parallelStream()
+                .map(path -> translateToMemory(path, debug, errors))
+                .collect(Collectors.toList());
+
+        if (!errors.isEmpty()) {
+            // the combined output isn't written if any file failed
+            filePaths.stream().filter(errors::containsKey).map(errors::get).forEach(System.out::println);
+            return;
+        }
 
+        String outFileName = newFileName(filePath);
+        OutputSink output = null;
         try {
-            Files.write(fileOut, outputLines, Charset.forName("UTF-8"));
-        } catch (IOException e) {
+            output = openOutputFile(outFileName);
+            for (OutputSink fileOutput : fileOutputs) {
+                output.addAll(fileOutput);
+            }
+            closeOutputFile(output);
+        } catch (UncheckedIOException e) {
             System.out.println("Error writing to file " + outFileName);
+            if (output != null) {
+                output.discard();
+            }
+        }
+    }
+
+    private OutputSink translateToMemory(String path, boolean debug, Map<String, String> errors) {
+        OutputSink fileOutput = OutputSink.inMemory();
+        try {
+            translateFile(path, debug, fileOutput);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            errors.put(path, "File: " + path + "\n---Error: " + e.getMessage());
+        }
+        return fileOutput;
+    }
+
+    // errors are returned as the message so one bad file doesn't stop the others
+    private String translateSeparately(String path, boolean debug) {
+        String outFileName = newFileName(path);
+        OutputSink output = null;
+        try {
+            output = openOutputFile(outFileName);
+            translateFile(path, debug, output);
+            output.close();
+            return "New file generated: " + outFileName;
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            output.discard();
+            return "File: " + path + "\n---Error: " + e.getMessage();
+        } catch (UncheckedIOException e) {
+            if (output != null) {
+                output.discard();
+            }
+            return "Error writing to file " + outFileName;
+        }
+    }
+
+    // with the cache option, a file translated before with the same content, name and options is copied from the cache
+    private void translateFile(String path, boolean debug, OutputSink output) {
+        preFileValidation(path);
+        if (cache == null) {
+            preFileProcessing(path);
+            translate(path, debug, output);
+            return;
+        }
+        String key = cache.key(path);
+        String cached = cache.get(key);
+        if (cached != null) {
+            output.addText(cached);
+            return;
+        }
+        OutputSink fileOutput = OutputSink.inMemory();
+        preFileProcessing(path);
+        translate(path, debug, fileOutput);
+        cache.put(key, fileOutput.getText());
+        output.addAll(fileOutput);
+    }
+
+    // entries are shared by every translator using the directory, the key tells their output apart
+    private BuildCache openCache(String filePath) {
+        File file = new File(filePath);
+        String directory = file.isDirectory() ? filePath : file.getAbsoluteFile().getParent();
+        String translation = getClass().getSimpleName() + " " + getVersion() + " " + options.stream()
+                .filter(option -> !RUN_OPTIONS.contains(option))
+                .sorted()
+                .collect(Collectors.joining(" "));
+        return BuildCache.open(directory, translation);
+    }
+
+    protected boolean hasOption(String option) {
+        return options.contains(option);
+    }
+
+    private String newFileName(String filePath) {
+        if (hasValidExtension(filePath)) {
+            return filePath.replace(getOldExtension(), getNewExtension());
         }
+        return filePath + getNewExtension();
+    }
 
-        System.out.println("New file generated: " + outFileName);
+    private OutputSink openOutputFile(String outFileName) throws UncheckedIOException {
+        OutputSink output = OutputSink.open(outFileName);
+        output.addAll(preTranslation());
+        return output;
+    }
+
+    private void closeOutputFile(OutputSink output) throws UncheckedIOException {
+        output.close();
+        System.out.println("New file generated: " + output.getFileName());
     }
 
     private List<String> getFilesToProcess(String filePath) {
@@ -97,6 +255,7 @@ abstract class AbstractTranslator {
             return Arrays.stream(dir.listFiles())
                     .map(File::getName)
                     .filter(this::hasValidExtension)
+                    .sorted()
                     .map(name -> directory + "/" + name)
                     .collect(Collectors.toList());
         }
@@ -111,6 +270,22 @@ abstract class AbstractTranslator {
 
     protected abstract boolean combineOutput();
 
+    // part of every cache key, bump it whenever the translator writes something different for the same input
+    protected abstract int getVersion();
+
+    // only translators that keep no shared state between files may run them concurrently
+    protected boolean canTranslateInParallel() {
+        return false;
+    }
+
+    // called once with every file before any is translated, for translators that look at the whole program
+    protected void prepare(List<String> filePaths) {}
+
+    // false when a file's output depends on the other files, which a per-file cache entry can't capture
+    protected boolean canCache() {
+        return true;
+    }
+
     protected abstract void preFileProcessing(String filePath);
 
     protected abstract String getNewExtension();
@@ -121,6 +296,7 @@ abstract class AbstractTranslator {
 
     protected abstract String getFileNullMessage();
 
-    protected abstract List<String> translate(String path, boolean addComments);
+    // translated lines are pushed to the output as they are generated
+    protected abstract void translate(String path, boolean addComments, OutputSink output);
 
 }
@@ -1,11 +1,16 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 class Assembler extends AbstractTranslator {
 
     private static SymbolTable symbolTable = new SymbolTable();
+    // reused for every encoded instruction
+    private static char[] binaryBuffer = new char[16];
     private static Assembler INSTANCE = new Assembler();
 
     private Assembler() {
@@ -40,17 +45,19 @@ class Assembler extends AbstractTranslator {
     }
 
     @Override
-    protected List<String> translate(String path, boolean addComments) {
-        List<String> outputLines = new ArrayList<>();
+    protected void translate(String path, boolean addComments, OutputSink output) {
+        if (singlePass()) {
+            translateSinglePass(path, output);
+            return;
+        }
         Parser parser = Parser.get(path);
         while (parser.hasMore()) {
             parser.advance();
             if (parser.commandType() == Parser.CommandType.L_COMMAND) {
                 continue;
             }
-            outputLines.add(translatedAsm(parser));
+            writeWord(instructionWord(parser), output);
         }
-        return outputLines;
     }
 
     @Override
@@ -58,10 +65,77 @@ class Assembler extends AbstractTranslator {
         return false;
     }
 
+    @Override
+    protected int getVersion() {
+        return 1;
+    }
+
     @Override
     protected void preFileProcessing(String filename) throws IllegalArgumentException {
         symbolTable.clear();
-        buildSymbolTable(filename);
+        if (!singlePass()) {
+            buildSymbolTable(filename);
+        }
+    }
+
+    private boolean singlePass() {
+        return hasOption("onepass");
+    }
+
+    // labels are added as they are found, earlier references to them are patched in once defined
+    private void translateSinglePass(String path, OutputSink output) {
+        // the whole file is held as instruction words since any line may still need patching
+        int[] words = new int[1024];
+        int size = 0;
+        // keeps first use order so leftover symbols get the same variable addresses as the two pass build
+        Map<String, List<Integer>> unresolved = new LinkedHashMap<>();
+        Parser parser = Parser.get(path);
+        while (parser.hasMore()) {
+            parser.advance();
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+            }
+            switch (parser.commandType()) {
+                case L_COMMAND: {
+                    String label = parser.symbol();
+                    symbolTable.addEntry(label, size);
+                    List<Integer> references = unresolved.remove(label);
+                    if (references != null) {
+                        patchReferences(words, references, size);
+                    }
+                    break;
+                }
+                case A_COMMAND: {
+                    String symbol = parser.symbol();
+                    if (!isConstant(symbol) && !symbolTable.contains(symbol)) {
+                        // filled in when the label or variable is known
+                        unresolved.computeIfAbsent(symbol, key -> new ArrayList<>()).add(size++);
+                        break;
+                    }
+                    words[size++] = instructionWord(parser);
+                    break;
+                }
+                case C_COMMAND: {
+                    words[size++] = instructionWord(parser);
+                    break;
+                }
+            }
+        }
+
+        // anything never defined as a label is a variable
+        for (Map.Entry<String, List<Integer>> entry : unresolved.entrySet()) {
+            patchReferences(words, entry.getValue(), getSymbolValueOrConstant(entry.getKey()));
+        }
+
+        for (int i = 0; i < size; i++) {
+            writeWord(words[i], output);
+        }
+    }
+
+    private static void patchReferences(int[] words, List<Integer> references, int address) {
+        for (int line : references) {
+            words[line] = address;
+        }
     }
 
     private static void buildSymbolTable(String fileName) throws IllegalArgumentException {
@@ -78,33 +152,47 @@ class Assembler extends AbstractTranslator {
         }
     }
 
-    private static String translatedAsm(Parser parser) throws IllegalArgumentException {
-        StringBuilder result = new StringBuilder();
+    private static int instructionWord(Parser parser) throws IllegalArgumentException {
         if (parser.commandType() == Parser.CommandType.A_COMMAND) {
-            result.append("0");
-            result.append(getSymbolValueOrConstant(parser.symbol()));
-        } else if (parser.commandType() == Parser.CommandType.C_COMMAND) {
-            result.append("111");
-            result.append(Code.get().comp(parser.comp()));
-            result.append(Code.get().dest(parser.dest()));
-            result.append(Code.get().jump(parser.jump()));
+            // leading bit is always 0
+            return getSymbolValueOrConstant(parser.symbol());
         }
-        return result.toString();
+        String line = parser.line();
+        return 0b111 << 13 |
+                Code.get().comp(line, parser.compStart(), parser.compEnd()) << 6 |
+                Code.get().dest(line, 0, parser.destEnd()) << 3 |
+                Code.get().jump(line, parser.jumpStart(), line.length());
     }
 
-    private static String getSymbolValueOrConstant(String symbol) {
+    private static int getSymbolValueOrConstant(String symbol) throws IllegalArgumentException {
         // must be non-negative if constant
-        if (symbol.matches("^\\d+$")) {
-            return convertToPaddedBinary(Integer.parseInt(symbol));
+        if (isConstant(symbol)) {
+            int value = Integer.parseInt(symbol);
+            if (value > 0x7FFF) {
+                throw new IllegalArgumentException(symbol + " is too large for an A instruction");
+            }
+            return value;
         }
         if (!symbolTable.contains(symbol)) {
             symbolTable.addEntry(symbol);
         }
-        return convertToPaddedBinary(symbolTable.getAddress(symbol));
+        return symbolTable.getAddress(symbol);
+    }
+
+    private static boolean isConstant(String symbol) {
+        if (symbol.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) < '0' || symbol.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static String convertToPaddedBinary(int i) {
-        // always non-negative values
-        return String.format("%15s", Integer.toBinaryString(i)).replace(' ', '0');
+    private static void writeWord(int word, OutputSink output) {
+        Code.writeBinary(word, binaryBuffer);
+        output.add(binaryBuffer);
     }
 }
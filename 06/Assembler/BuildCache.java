@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// translated output of single files, kept on disk under a hash of everything that went into it
+class BuildCache {
+
+    static final String DIRECTORY = ".buildcache";
+
+    private final Path directory;
+    // translator, version and options, the part of every key that is the same for all files
+    private final String translation;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private BuildCache(Path directory, String translation) {
+        this.directory = directory;
+        this.translation = translation;
+    }
+
+    // the cache lives in a hidden directory next to the files being translated
+    static BuildCache open(String sourceDirectory, String translation) throws UncheckedIOException {
+        Path directory = Paths.get(sourceDirectory, DIRECTORY);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new BuildCache(directory, translation);
+    }
+
+    // the file name is part of the key since it ends up in static and label names
+    String key(String filePath) throws UncheckedIOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(translation.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Paths.get(filePath).getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Files.readAllBytes(Paths.get(filePath)));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // null on a miss
+    String get(String key) {
+        Path entry = directory.resolve(key);
+        if (!Files.isRegularFile(entry)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            String output = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+            hits.incrementAndGet();
+            return output;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    // written to a temporary file and moved so parallel translations never see half an entry.
+    // a failed write only costs a miss next time, so it doesn't stop the translation
+    void put(String key, CharSequence output) {
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, output.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error writing cache entry " + key);
+        }
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+}
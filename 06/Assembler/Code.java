@@ -1,14 +1,16 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 
 class Code {
 
     private static Code instance = null;
 
-    private Map<String, String> destCode = new HashMap<>();
-    private Map<String, String> compCode = new HashMap<>();
-    private Map<String, String> jumpCode = new HashMap<>();
+    // comp mnemonics are packed 4 bits per character into a table index
+    private static final String COMP_CHARS = "01-!DAM+&|";
+    private static final int NO_CODE = -1;
+
+    private byte[] compCharCodes = new byte[128];
+    private int[] compCode = new int[1 << 12];
 
     private Code() {}
 
@@ -20,87 +22,137 @@ class Code {
         return instance;
     }
 
-    String dest(String dest) throws IllegalArgumentException {
-        if (!destCode.containsKey(dest)) {
-            throw new IllegalArgumentException(dest + " is not correct syntax");
+    int dest(String dest) throws IllegalArgumentException {
+        return dest(dest, 0, dest.length());
+    }
+
+    int comp(String comp) throws IllegalArgumentException {
+        return comp(comp, 0, comp.length());
+    }
+
+    int jump(String jump) throws IllegalArgumentException {
+        return jump(jump, 0, jump.length());
+    }
+
+    // decodes line[start, end) in place, registers must appear in A, M, D order
+    int dest(String line, int start, int end) throws IllegalArgumentException {
+        int bits = 0;
+        int lastBit = 0b1000;
+        for (int i = start; i < end; i++) {
+            int bit;
+            switch (line.charAt(i)) {
+                case 'A': bit = 0b100; break;
+                case 'M': bit = 0b010; break;
+                case 'D': bit = 0b001; break;
+                default: throw syntaxError(line, start, end);
+            }
+            if (bit >= lastBit) {
+                throw syntaxError(line, start, end);
+            }
+            lastBit = bit;
+            bits |= bit;
         }
-        return destCode.get(dest);
+        // dest bits are ordered A, D, M
+        return (bits & 0b100) | (bits & 0b001) << 1 | (bits & 0b010) >> 1;
     }
 
-    String comp(String comp) throws IllegalArgumentException {
-        if (!compCode.containsKey(comp)) {
-            throw new IllegalArgumentException(comp + " is not correct syntax");
+    int comp(String line, int start, int end) throws IllegalArgumentException {
+        int key = compKey(line, start, end);
+        if (key == NO_CODE || compCode[key] == NO_CODE) {
+            throw syntaxError(line, start, end);
         }
-        return compCode.get(comp);
+        return compCode[key];
     }
 
-    String jump(String jump) throws IllegalArgumentException {
-        if (!jumpCode.containsKey(jump)) {
-            throw new IllegalArgumentException(jump + " is not correct syntax");
+    int jump(String line, int start, int end) throws IllegalArgumentException {
+        if (start == end) {
+            return 0b000;
+        }
+        if (end - start != 3 || line.charAt(start) != 'J') {
+            throw syntaxError(line, start, end);
+        }
+        switch (line.charAt(start + 1) << 8 | line.charAt(start + 2)) {
+            case 'G' << 8 | 'T': return 0b001;
+            case 'E' << 8 | 'Q': return 0b010;
+            case 'G' << 8 | 'E': return 0b011;
+            case 'L' << 8 | 'T': return 0b100;
+            case 'N' << 8 | 'E': return 0b101;
+            case 'L' << 8 | 'E': return 0b110;
+            case 'M' << 8 | 'P': return 0b111;
+            default: throw syntaxError(line, start, end);
         }
-        return jumpCode.get(jump);
+    }
+
+    // writes the 16 bit instruction word as '0' and '1' characters to the start of the buffer
+    static void writeBinary(int word, char[] buffer) {
+        for (int bit = 15; bit >= 0; bit--) {
+            buffer[15 - bit] = (char) ('0' + ((word >> bit) & 1));
+        }
+    }
+
+    private int compKey(String line, int start, int end) {
+        if (end - start < 1 || end - start > 3) {
+            return NO_CODE;
+        }
+        int key = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= compCharCodes.length || compCharCodes[c] == 0) {
+                return NO_CODE;
+            }
+            key = key << 4 | compCharCodes[c];
+        }
+        return key;
+    }
+
+    private static IllegalArgumentException syntaxError(String line, int start, int end) {
+        return new IllegalArgumentException(line.substring(start, end) + " is not correct syntax");
     }
 
     private void initialize() {
-        initializeDest();
+        for (int i = 0; i < COMP_CHARS.length(); i++) {
+            compCharCodes[COMP_CHARS.charAt(i)] = (byte) (i + 1);
+        }
+        Arrays.fill(compCode, NO_CODE);
         initializeComp();
-        initializeJump();
     }
 
-    private void initializeDest() {
-        destCode.put("", "000");
-        destCode.put("M", "001");
-        destCode.put("D", "010");
-        destCode.put("MD", "011");
-        destCode.put("A", "100");
-        destCode.put("AM", "101");
-        destCode.put("AD", "110");
-        destCode.put("AMD", "111");
+    private void putComp(String comp, int bits) {
+        compCode[compKey(comp, 0, comp.length())] = bits;
     }
 
     private void initializeComp() {
         // when a = 0, always starts with 0
-        compCode.put("0", "0101010");
-        compCode.put("1", "0111111");
-        compCode.put("-1", "0111010");
-        compCode.put("D", "0001100");
-        compCode.put("A", "0110000");
-        compCode.put("!D", "0001101");
-        compCode.put("!A", "0110001");
-        compCode.put("-D", "0001111");
-        compCode.put("-A", "0110011");
-        compCode.put("D+1", "0011111");
-        compCode.put("A+1", "0110111");
-        compCode.put("D-1", "0001110");
-        compCode.put("A-1", "0110010");
-        compCode.put("D+A", "0000010");
-        compCode.put("D-A", "0010011");
-        compCode.put("A-D", "0000111");
-        compCode.put("D&A", "0000000");
-        compCode.put("D|A", "0010101");
+        putComp("0", 0b0101010);
+        putComp("1", 0b0111111);
+        putComp("-1", 0b0111010);
+        putComp("D", 0b0001100);
+        putComp("A", 0b0110000);
+        putComp("!D", 0b0001101);
+        putComp("!A", 0b0110001);
+        putComp("-D", 0b0001111);
+        putComp("-A", 0b0110011);
+        putComp("D+1", 0b0011111);
+        putComp("A+1", 0b0110111);
+        putComp("D-1", 0b0001110);
+        putComp("A-1", 0b0110010);
+        putComp("D+A", 0b0000010);
+        putComp("D-A", 0b0010011);
+        putComp("A-D", 0b0000111);
+        putComp("D&A", 0b0000000);
+        putComp("D|A", 0b0010101);
 
         // when a = 1, always starts with 1
-        compCode.put("M", "1110000");
-        compCode.put("!M", "1110001");
-        compCode.put("-M", "1110011");
-        compCode.put("M+1", "1110111");
-        compCode.put("M-1", "1110010");
-        compCode.put("D+M", "1000010");
-        compCode.put("D-M", "1010011");
-        compCode.put("M-D", "1000111");
-        compCode.put("D&M", "1000000");
-        compCode.put("D|M", "1010101");
-    }
-
-    private void initializeJump() {
-        jumpCode.put("", "000");
-        jumpCode.put("JGT", "001");
-        jumpCode.put("JEQ", "010");
-        jumpCode.put("JGE", "011");
-        jumpCode.put("JLT", "100");
-        jumpCode.put("JNE", "101");
-        jumpCode.put("JLE", "110");
-        jumpCode.put("JMP", "111");
+        putComp("M", 0b1110000);
+        putComp("!M", 0b1110001);
+        putComp("-M", 0b1110011);
+        putComp("M+1", 0b1110111);
+        putComp("M-1", 0b1110010);
+        putComp("D+M", 0b1000010);
+        putComp("D-M", 0b1010011);
+        putComp("M-D", 0b1000111);
+        putComp("D&M", 0b1000000);
+        putComp("D|M", 0b1010101);
     }
 
 }
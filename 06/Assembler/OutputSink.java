@@ -0,0 +1,108 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+// buffered line output, translators push lines as they are generated instead of holding the whole file
+class OutputSink implements Closeable {
+
+    private Path path;
+    private Writer writer;
+
+    private OutputSink(Path path, Writer writer) {
+        this.path = path;
+        this.writer = writer;
+    }
+
+    // for sinks that rewrite lines before passing them on to another sink
+    protected OutputSink() {
+    }
+
+    static OutputSink open(String fileName) throws UncheckedIOException {
+        Path path = Paths.get(fileName);
+        try {
+            return new OutputSink(path, Files.newBufferedWriter(path, Charset.forName("UTF-8")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // holds the output in memory until it is appended to a file sink
+    static OutputSink inMemory() {
+        return new OutputSink(null, new StringWriter());
+    }
+
+    String getFileName() {
+        return path.toString();
+    }
+
+    void add(String line) throws UncheckedIOException {
+        try {
+            writer.write(line);
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writes the characters as one line without creating a String
+    void add(char[] line) throws UncheckedIOException {
+        try {
+            writer.write(line);
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void addAll(List<String> lines) throws UncheckedIOException {
+        for (String line : lines) {
+            add(line);
+        }
+    }
+
+    void addAll(OutputSink memory) throws UncheckedIOException {
+        addText(memory.getText());
+    }
+
+    // lines already joined with their separators, as returned by getText
+    void addText(CharSequence text) throws UncheckedIOException {
+        try {
+            writer.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // everything written so far to an in memory sink
+    CharSequence getText() {
+        return ((StringWriter) writer).getBuffer();
+    }
+
+    // closes and removes a partially written file
+    void discard() {
+        try {
+            writer.close();
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            System.out.println("Error removing file " + path);
+        }
+    }
+
+    @Override
+    public void close() throws UncheckedIOException {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -22,17 +22,8 @@ class Parser extends AbstractParser {
 
     @Override
     protected void next() {
-        line = reader.nextLine();
-        removeComments();
-        removeWhitespace();
-    }
-
-    private void removeWhitespace() {
-        line = line.replaceAll("\\s", "");
-    }
-
-    private void removeComments() {
-        line = removeLineComments(line);
+        // comments and all whitespace removed
+        line = reader.nextCodeLine(false);
     }
 
     CommandType commandType() {
@@ -63,32 +54,43 @@ class Parser extends AbstractParser {
     }
 
     String dest() {
-        if (commandType() != CommandType.C_COMMAND) {
-            throw new UnsupportedOperationException("dest can only be called on C Commands");
-        }
-        if (!line.contains("=")) {
-            return "";
-        }
-        return line.substring(0, line.indexOf('='));
+        return line.substring(0, destEnd());
     }
 
     String comp() {
-        if (commandType() != CommandType.C_COMMAND) {
-            throw new UnsupportedOperationException("comp can only be called on C Commands");
-        }
-        int start = line.contains("=") ? line.indexOf('=') + 1 : 0;
-        int end = line.contains(";") ? line.indexOf(';') : line.length();
-        return line.substring(start, end);
+        return line.substring(compStart(), compEnd());
     }
 
     String jump() {
+        return line.substring(jumpStart());
+    }
+
+    // field bounds let the encoder read dest, comp and jump without a substring
+    String line() {
+        return line;
+    }
+
+    int destEnd() {
+        return Math.max(compStart() - 1, 0);
+    }
+
+    int compStart() {
         if (commandType() != CommandType.C_COMMAND) {
-            throw new UnsupportedOperationException("jump can only be called on C Commands");
+            throw new UnsupportedOperationException("C Command fields can only be read on C Commands");
         }
-        if (!line.contains(";")) {
-            return "";
+        return line.indexOf('=') + 1;
+    }
+
+    int compEnd() {
+        if (commandType() != CommandType.C_COMMAND) {
+            throw new UnsupportedOperationException("C Command fields can only be read on C Commands");
         }
-        return line.substring(line.indexOf(';') + 1);
+        int end = line.indexOf(';');
+        return end < 0 ? line.length() : end;
+    }
+
+    int jumpStart() {
+        return Math.min(compEnd() + 1, line.length());
     }
 
     enum CommandType {
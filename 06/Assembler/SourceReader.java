@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// line reader over the raw file bytes, replaces Scanner for all the parsers
+class SourceReader {
+
+    // smaller files are read straight into the heap, mapping them costs more than it saves
+    private static final int MAP_THRESHOLD = 1 << 16;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private ByteBuffer source;
+    private int position = 0;
+    // reused to build each stripped line
+    private char[] lineBuffer = new char[256];
+
+    private SourceReader(ByteBuffer source) {
+        this.source = source;
+    }
+
+    static SourceReader open(String file) throws IOException {
+        Path path = Paths.get(file);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return new SourceReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return new SourceReader(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    static SourceReader empty() {
+        return new SourceReader(EMPTY);
+    }
+
+    // same as Scanner.hasNext, true only if something other than whitespace is left
+    boolean hasNext() {
+        for (int i = position; i < source.limit(); i++) {
+            if (charAt(i) > ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String nextLine() {
+        int start = position;
+        int end = lineEnd(start);
+        skipLineBreak(end);
+        if (end == start) {
+            return "";
+        }
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            lineBuffer[i - start] = charAt(i);
+        }
+        return new String(lineBuffer, 0, end - start);
+    }
+
+    // reads the next line without its // comment, whitespace is dropped or collapsed to single spaces
+    // blank and comment only lines return "" without creating a new String
+    String nextCodeLine(boolean keepSpaces) {
+        int start = position;
+        int end = lineEnd(start);
+        skipLineBreak(end);
+        ensureCapacity(end - start);
+
+        int length = 0;
+        boolean pendingSpace = false;
+        for (int i = start; i < end; i++) {
+            char c = charAt(i);
+            if (c == '/' && i + 1 < end && charAt(i + 1) == '/') {
+                break;
+            }
+            if (c <= ' ') {
+                pendingSpace = keepSpaces && length > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                lineBuffer[length++] = ' ';
+                pendingSpace = false;
+            }
+            lineBuffer[length++] = c;
+        }
+        return length == 0 ? "" : new String(lineBuffer, 0, length);
+    }
+
+    private int lineEnd(int start) {
+        int end = start;
+        while (end < source.limit() && charAt(end) != '\n' && charAt(end) != '\r') {
+            end++;
+        }
+        return end;
+    }
+
+    // handles \n, \r\n and \r
+    private void skipLineBreak(int end) {
+        position = end;
+        if (position < source.limit() && charAt(position) == '\r') {
+            position++;
+        }
+        if (position < source.limit() && charAt(position) == '\n') {
+            position++;
+        }
+    }
+
+    // sources are ASCII so each byte is one character
+    private char charAt(int index) {
+        return (char) (source.get(index) & 0xFF);
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > lineBuffer.length) {
+            lineBuffer = new char[Math.max(length, lineBuffer.length * 2)];
+        }
+    }
+}
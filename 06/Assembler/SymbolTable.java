@@ -8,11 +8,12 @@ class SymbolTable {
 
     SymbolTable() {
         table = new HashMap<>();
-        nextAvailable = 16;
         initialize();
     }
 
     private void initialize() {
+        nextAvailable = 16;
+
         table.put("SP", 0);
         table.put("LCL", 1);
         table.put("ARG", 2);
@@ -47,7 +48,9 @@ class SymbolTable {
         return table.get(symbol);
     }
 
+    // resets to only the predefined symbols
     void clear() {
         table.clear();
+        initialize();
     }
 }
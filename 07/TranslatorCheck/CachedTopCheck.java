@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+// runs .vm files without a Sys.init the way the course .tst scripts do, SP set to 256 instead of the bootstrap, and
+// checks that the cachedtop option ends with the same SP and top of the stack as the default translation.
+// built with 05/Emulator, 06/Assembler and 07/VMTranslator, run from the repository root
+class CachedTopCheck {
+
+    private static final List<String> DEFAULT_FILES = Arrays.asList(
+            "07/CourseMaterials/StackArithmetic/SimpleAdd/SimpleAdd.vm",
+            "07/CourseMaterials/StackArithmetic/StackTest/StackTest.vm");
+    private static final long MAX_CYCLES = 1_000_000;
+
+    public static void main(String[] args) {
+        List<String> files = args.length != 0 ? Arrays.asList(args) : DEFAULT_FILES;
+        boolean passed = true;
+        for (String file : files) {
+            int[] expected;
+            int[] actual;
+            try {
+                expected = run(file);
+                actual = run(file, "cachedtop");
+            } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                System.out.println("File: " + file + "\n---Error: " + e.getMessage());
+                passed = false;
+                continue;
+            }
+            boolean same = Arrays.equals(expected, actual);
+            passed &= same;
+            System.out.println((same ? "OK   " : "FAIL ") + file + ": SP=" + actual[0] + " top=" + actual[1] +
+                    (same ? "" : ", expected SP=" + expected[0] + " top=" + expected[1]));
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // SP and the value below it once the program runs off the end of ROM
+    private static int[] run(String file, String... options) throws IOException {
+        Path directory = Files.createTempDirectory("vmcheck");
+        try {
+            Path source = directory.resolve(new File(file).getName());
+            Files.copy(new File(file).toPath(), source, StandardCopyOption.REPLACE_EXISTING);
+            List<String> translatorArgs = new ArrayList<>();
+            translatorArgs.add(source.toString());
+            translatorArgs.addAll(Arrays.asList(options));
+            VMTranslator.main(translatorArgs.toArray(new String[0]));
+
+            Path asm = directory.resolve(source.getFileName().toString().replace(".vm", ".asm"));
+            if (!Files.exists(asm)) {
+                throw new IllegalArgumentException("no output for " + file);
+            }
+            List<String> lines = Files.readAllLines(asm);
+            // the bootstrap jumps to a Sys.init these files don't have
+            List<String> program = new ArrayList<>(Arrays.asList("@256", "D=A", "@SP", "M=D"));
+            program.addAll(lines.subList(VMCode.getInit(EnumSet.noneOf(VMCode.Mode.class)).size(), lines.size()));
+            Files.write(asm, program);
+            Assembler.main(new String[] {asm.toString()});
+
+            HackEmulator emulator = HackEmulator.load(asm.toString().replace(".asm", ".hack"));
+            emulator.run(MAX_CYCLES);
+            if (!emulator.isHalted()) {
+                throw new IllegalArgumentException("still running after " + MAX_CYCLES + " cycles");
+            }
+            int sp = emulator.peek(0);
+            return new int[] {sp, emulator.peek(sp - 1)};
+        } finally {
+            for (File created : directory.toFile().listFiles()) {
+                created.delete();
+            }
+            directory.toFile().delete();
+        }
+    }
+}
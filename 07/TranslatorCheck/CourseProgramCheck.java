@@ -0,0 +1,221 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// translates every 07/08 course program with each VMTranslator option, runs it with the RAM its .tst script sets up
+// and checks that SP and the RAM the script outputs match the default translation.
+// built with 05/Emulator, 06/Assembler and 07/VMTranslator, run from the repository root
+class CourseProgramCheck {
+
+    private static final List<String> COURSE_DIRECTORIES = Arrays.asList("07/CourseMaterials", "08/CourseMaterials");
+    private static final List<List<String>> OPTIONS = Arrays.asList(
+            Arrays.asList("peephole"),
+            Arrays.asList("sharedcalls"),
+            Arrays.asList("sharedcompare"),
+            Arrays.asList("cachedtop"),
+            Arrays.asList("peephole", "sharedcalls", "sharedcompare", "cachedtop"));
+    // well past the repeat count of every script, the options change how many cycles a program takes
+    private static final long MAX_CYCLES = 1_000_000;
+    private static final String START = "VM:START";
+
+    private static final Pattern SET = Pattern.compile("set RAM\\[(\\d+)\\] (-?\\d+)");
+    private static final Pattern OUTPUT = Pattern.compile("RAM\\[(\\d+)\\]");
+
+    public static void main(String[] args) {
+        List<File> programs = args.length != 0
+                ? Arrays.stream(args).map(File::new).collect(Collectors.toList())
+                : findPrograms();
+        boolean passed = true;
+        for (File program : programs) {
+            Script script;
+            Map<Integer, Integer> expected;
+            try {
+                script = Script.read(program);
+                expected = run(program, script, new ArrayList<>());
+            } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                System.out.println("FAIL " + program + ": " + e.getMessage());
+                passed = false;
+                continue;
+            }
+            for (List<String> options : OPTIONS) {
+                String result;
+                try {
+                    Map<Integer, Integer> actual = run(program, script, options);
+                    result = actual.equals(expected) ? null : "got " + actual + ", expected " + expected;
+                } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                    result = e.getMessage();
+                }
+                passed &= result == null;
+                System.out.println((result == null ? "OK   " : "FAIL ") + program.getName() + " " +
+                        String.join(" ", options) + (result == null ? "" : ": " + result));
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // every directory with a .tst script for the CPU emulator, the VME scripts are for the VM emulator
+    private static List<File> findPrograms() {
+        List<File> programs = new ArrayList<>();
+        for (String course : COURSE_DIRECTORIES) {
+            File[] projects = new File(course).listFiles(File::isDirectory);
+            if (projects == null) {
+                continue;
+            }
+            Arrays.sort(projects);
+            for (File project : projects) {
+                File[] directories = project.listFiles(File::isDirectory);
+                if (directories == null) {
+                    continue;
+                }
+                Arrays.sort(directories);
+                for (File directory : directories) {
+                    if (new File(directory, directory.getName() + ".tst").exists()) {
+                        programs.add(directory);
+                    }
+                }
+            }
+        }
+        return programs;
+    }
+
+    // SP and every address the script outputs, once the program halts
+    private static Map<Integer, Integer> run(File program, Script script, List<String> options) throws IOException {
+        Path directory = Files.createTempDirectory("vmcheck");
+        Path source = directory.resolve(program.getName());
+        Files.createDirectory(source);
+        try {
+            boolean hasInit = false;
+            for (File file : program.listFiles((dir, name) -> name.endsWith(".vm"))) {
+                Files.copy(file.toPath(), source.resolve(file.getName()));
+                hasInit |= Files.readAllLines(file.toPath()).stream()
+                        .anyMatch(line -> line.trim().startsWith("function Sys.init"));
+            }
+            List<String> translatorArgs = new ArrayList<>();
+            translatorArgs.add(source.toString());
+            translatorArgs.addAll(options);
+            quietly(() -> VMTranslator.main(translatorArgs.toArray(new String[0])));
+
+            Path asm = directory.resolve(program.getName() + ".asm");
+            if (!Files.exists(asm)) {
+                throw new IllegalArgumentException("no output for " + program);
+            }
+            Files.write(asm, setUp(Files.readAllLines(asm), script, hasInit, options));
+            quietly(() -> Assembler.main(new String[] {asm.toString()}));
+
+            HackEmulator emulator = HackEmulator.load(asm.toString().replace(".asm", ".hack"));
+            for (Map.Entry<Integer, Integer> set : script.sets.entrySet()) {
+                emulator.poke(set.getKey(), set.getValue());
+            }
+            emulator.run(MAX_CYCLES);
+            if (!emulator.isHalted()) {
+                throw new IllegalArgumentException("still running after " + MAX_CYCLES + " cycles");
+            }
+            Map<Integer, Integer> ram = new LinkedHashMap<>();
+            ram.put(0, emulator.peek(0));
+            for (int address : script.outputs) {
+                ram.put(address, emulator.peek(address));
+            }
+            return ram;
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    // the scripts set SP themselves where they set it at all, and programs without a Sys.init start right after the
+    // bootstrap, past any shared routines it holds
+    private static List<String> setUp(List<String> lines, Script script, boolean hasInit, List<String> options) {
+        List<String> program = new ArrayList<>(lines);
+        if (!hasInit) {
+            program.add(VMCode.getInit(modes(options)).size(), "(" + START + ")");
+            program.set(program.indexOf("@Sys.init"), "@" + START);
+        }
+        if (script.sets.containsKey(0)) {
+            // @256, D=A, @SP, M=D
+            program.subList(0, 4).clear();
+        }
+        return program;
+    }
+
+    // the options that add routines to the bootstrap
+    private static Set<VMCode.Mode> modes(List<String> options) {
+        Set<VMCode.Mode> modes = EnumSet.noneOf(VMCode.Mode.class);
+        if (options.contains("sharedcalls")) {
+            modes.add(VMCode.Mode.SHARED_CALLS);
+        }
+        if (options.contains("sharedcompare")) {
+            modes.add(VMCode.Mode.SHARED_COMPARISONS);
+        }
+        return modes;
+    }
+
+    private static void quietly(Runnable action) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+        String text = captured.toString();
+        if (text.contains("Error")) {
+            throw new IllegalArgumentException(text.trim());
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // the RAM a .tst script sets before running and the addresses it outputs afterwards
+    private static class Script {
+        final Map<Integer, Integer> sets = new LinkedHashMap<>();
+        final List<Integer> outputs = new ArrayList<>();
+
+        static Script read(File program) throws IOException {
+            Script script = new Script();
+            boolean outputList = false;
+            for (String line : Files.readAllLines(new File(program, program.getName() + ".tst").toPath())) {
+                line = line.replaceAll("//.*", "").trim();
+                Matcher set = SET.matcher(line);
+                if (set.find()) {
+                    script.sets.put(Integer.parseInt(set.group(1)), Integer.parseInt(set.group(2)));
+                }
+                // the output list can go on over several lines, up to its ;
+                if (line.startsWith("output-list")) {
+                    outputList = true;
+                }
+                if (outputList) {
+                    Matcher output = OUTPUT.matcher(line);
+                    while (output.find()) {
+                        script.outputs.add(Integer.parseInt(output.group(1)));
+                    }
+                    outputList = !line.endsWith(";");
+                }
+            }
+            return script;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// which functions each function calls, across every file of a program
+class CallGraph {
+
+    // functions in file order, each with the functions it calls
+    private final Map<String, Set<String>> calls = new LinkedHashMap<>();
+
+    private CallGraph() {
+    }
+
+    static CallGraph build(List<String> filePaths) throws IllegalArgumentException, UnsupportedOperationException {
+        CallGraph graph = new CallGraph();
+        for (String path : filePaths) {
+            VMParser parser = VMParser.get(path);
+            // calls before the first function can't be reached from Sys.init, they're kept but not followed
+            Set<String> callees = new HashSet<>();
+            while (parser.hasMore()) {
+                parser.advance();
+                switch (parser.commandType()) {
+                    case C_FUNCTION:
+                        callees = graph.calls.computeIfAbsent(parser.arg1(), function -> new HashSet<>());
+                        break;
+                    case C_CALL:
+                        callees.add(parser.arg1());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return graph;
+    }
+
+    boolean contains(String function) {
+        return calls.containsKey(function);
+    }
+
+    // functions no chain of calls from entry reaches, in file order
+    Set<String> unreachableFrom(String entry) {
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        reached.add(entry);
+        pending.push(entry);
+        while (!pending.isEmpty()) {
+            // calls to functions that aren't defined anywhere fail later, in the assembler
+            for (String callee : calls.getOrDefault(pending.pop(), Collections.emptySet())) {
+                if (reached.add(callee)) {
+                    pending.push(callee);
+                }
+            }
+        }
+        Set<String> unreachable = new LinkedHashSet<>(calls.keySet());
+        unreachable.removeAll(reached);
+        return unreachable;
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// rewrites the generated assembly through a small window before passing it on
+// every rule leaves the registers and RAM as the original instructions would, only fewer cycles are spent
+class PeepholeOptimizer extends OutputSink {
+
+    private static final int WINDOW = 16;
+
+    // pushFromD immediately followed by popToD, the second @SP of popToD is already dropped as a repeated address
+    private static final List<String> PUSH_POP = Arrays.asList(
+            "@SP", "A=M", "M=D", "@SP", "M=M+1", "AM=M-1", "D=M");
+    // same end state as PUSH_POP, the value is still written above the stack but SP never moves
+    private static final List<String> PUSH_POP_REPLACEMENT = Arrays.asList("@SP", "A=M", "M=D");
+
+    private OutputSink target;
+    private List<String> window = new ArrayList<>();
+    private int removed = 0;
+
+    PeepholeOptimizer(OutputSink target) {
+        this.target = target;
+    }
+
+    @Override
+    void add(String line) {
+        window.add(line);
+        while (removePushPop() || removeRepeatedAddress() || removeDeadStoreToD()) {
+            // keep going while a rule still applies to the end of the window
+        }
+        while (window.size() > WINDOW) {
+            target.add(window.remove(0));
+        }
+    }
+
+    // passes the rest of the window on, called at the end of each file
+    void flush() {
+        for (String line : window) {
+            target.add(line);
+        }
+        window.clear();
+    }
+
+    int getRemoved() {
+        return removed;
+    }
+
+    private boolean removePushPop() {
+        int start = window.size() - PUSH_POP.size();
+        if (start < 0 || !window.subList(start, window.size()).equals(PUSH_POP)) {
+            return false;
+        }
+        window.subList(start, window.size()).clear();
+        window.addAll(PUSH_POP_REPLACEMENT);
+        removed += PUSH_POP.size() - PUSH_POP_REPLACEMENT.size();
+        return true;
+    }
+
+    // @X, an instruction that keeps A, @X again: A already holds X
+    private boolean removeRepeatedAddress() {
+        int last = window.size() - 1;
+        if (last < 2 || !isAddress(window.get(last)) || !window.get(last).equals(window.get(last - 2))) {
+            return false;
+        }
+        String between = window.get(last - 1);
+        if (!isComputation(between) || dest(between).contains("A") || !jump(between).isEmpty()) {
+            return false;
+        }
+        window.remove(last);
+        removed++;
+        return true;
+    }
+
+    // D=... overwritten by a later instruction before anything reads D
+    private boolean removeDeadStoreToD() {
+        int last = window.size() - 1;
+        String overwrite = window.get(last);
+        if (!isComputation(overwrite) || !dest(overwrite).contains("D") || comp(overwrite).contains("D")) {
+            return false;
+        }
+        for (int i = last - 1; i >= 0; i--) {
+            String line = window.get(i);
+            if (isAddress(line)) {
+                continue;
+            }
+            if (!isComputation(line) || comp(line).contains("D") || !jump(line).isEmpty()) {
+                // labels, comments, jumps and reads of D keep the earlier value live
+                return false;
+            }
+            if (dest(line).contains("D")) {
+                if (!dest(line).equals("D")) {
+                    // also writes A or M so it still has an effect
+                    return false;
+                }
+                window.remove(i);
+                removed++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAddress(String line) {
+        return line.startsWith("@");
+    }
+
+    private static boolean isComputation(String line) {
+        return !line.isEmpty() && !isAddress(line) && !line.startsWith("(") && !line.startsWith("//");
+    }
+
+    private static String dest(String line) {
+        int equals = line.indexOf('=');
+        return equals < 0 ? "" : line.substring(0, equals);
+    }
+
+    private static String comp(String line) {
+        int start = line.indexOf('=') + 1;
+        int end = line.indexOf(';');
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
+    private static String jump(String line) {
+        int semicolon = line.indexOf(';');
+        return semicolon < 0 ? "" : line.substring(semicolon + 1);
+    }
+}
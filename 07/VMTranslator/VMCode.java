@@ -1,15 +1,40 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 class VMCode {
 
-    private static int resume = 0;
-    private static int functionCall = 0;
+    // shared routines are reached with a jump, their labels use ':' like other generated labels
+    private static final String CALL_ROUTINE = "VM:CALL";
+    private static final String RETURN_ROUTINE = "VM:RETURN";
+    private static final String TRUE_ROUTINE = "VM:TRUE";
+    private static final String FALSE_ROUTINE = "VM:FALSE";
+
+    // an offset into local, argument, this or that is reached with A=A+1 that many times at most
+    private static final int MAX_OPERAND_OFFSET = 3;
+
+    private final String fileName;
+    private final Set<Mode> modes;
+    // counters are per file so files can be translated independently
+    private int resume = 0;
+    private int functionCall = 0;
+    // with CACHED_TOP the top of the stack can be in D instead, SP then points at where it would be stored
+    private boolean topInD = false;
+    // a push onto a top cached in D is held back, so an operation right after it can read the value in place
+    private String pendingSegment = null;
+    private String pendingIndex = null;
+
+    private VMCode(String fileName, Set<Mode> modes) {
+        this.fileName = fileName;
+        this.modes = modes;
+    }
 
-    private VMCode () {}
+    static VMCode forFile(String fileName, Set<Mode> modes) {
+        return new VMCode(fileName, modes);
+    }
 
-    static List<String> getInit() {
+    static List<String> getInit(Set<Mode> modes) {
         List<String> block = new ArrayList<>();
         // initialize @SP to 256
         block.add("@256");
@@ -19,10 +44,32 @@ class VMCode {
         // jump to Sys.init
         block.add("@Sys.init");
         block.add("0;JMP");
+        if (modes.contains(Mode.SHARED_CALLS)) {
+            block.addAll(callRoutine());
+            block.addAll(returnRoutine());
+        }
+        if (modes.contains(Mode.SHARED_COMPARISONS)) {
+            block.addAll(comparisonRoutines());
+        }
         return block;
     }
 
-    static List<String> getArithmetic(String command) throws IllegalArgumentException {
+    List<String> getArithmetic(String command) throws IllegalArgumentException {
+        switch (command) {
+            case "eq":
+            case "gt":
+            case "lt": {
+                if (modes.contains(Mode.CACHED_TOP)) {
+                    return getCachedComparison(command);
+                }
+                return modes.contains(Mode.SHARED_COMPARISONS) ? getSharedComparison(command) : getComparison(command);
+            }
+        }
+
+        if (modes.contains(Mode.CACHED_TOP)) {
+            return getCachedArithmetic(command);
+        }
+
         List<String> output = new ArrayList<>();
 
         output.add("@SP");
@@ -67,78 +114,127 @@ class VMCode {
             }
         }
 
-        output.add("AM=M-1");
-        output.add("MD=M-D");
-        output.add("@FALSE" + resume);
+        throw new IllegalArgumentException(command + " is not a valid arithmetic command");
+
+    }
 
+    // y comes from D and x from memory, the result is left in D for whatever comes next
+    private List<String> getCachedArithmetic(String command) throws IllegalArgumentException {
+        if (pendingSegment != null) {
+            // x is in D and y was never pushed
+            String y = pendingSegment.equals("constant") ? "A" : "M";
+            String computation = null;
+            switch (command) {
+                case "add": computation = "D=D+" + y; break;
+                case "sub": computation = "D=D-" + y; break;
+                case "and": computation = "D=D&" + y; break;
+                case "or": computation = "D=D|" + y; break;
+            }
+            if (computation != null) {
+                List<String> block = new ArrayList<>(getOperand(pendingSegment, pendingIndex));
+                block.add(computation);
+                pendingSegment = null;
+                pendingIndex = null;
+                return block;
+            }
+        }
+
+        List<String> block = new ArrayList<>(popTop());
+        topInD = true;
         switch (command) {
-            case "eq": {
-                output.add("D;JNE");
-                output.addAll(trueFalseBlock());
-                return output;
+            case "neg": {
+                block.add("D=-D");
+                return block;
             }
-            case "gt": {
-                output.add("D;JLE");
-                output.addAll(trueFalseBlock());
-                return output;
+            case "not": {
+                block.add("D=!D");
+                return block;
             }
-            case "lt": {
-                output.add("D;JGE");
-                output.addAll(trueFalseBlock());
-                return output;
+        }
+
+        block.add("@SP");
+        block.add("AM=M-1");
+
+        switch (command) {
+            case "add": {
+                block.add("D=D+M");
+                return block;
+            }
+            case "sub": {
+                block.add("D=M-D");
+                return block;
+            }
+            case "and": {
+                block.add("D=D&M");
+                return block;
+            }
+            case "or": {
+                block.add("D=D|M");
+                return block;
             }
         }
 
         throw new IllegalArgumentException(command + " is not a valid arithmetic command");
-
     }
 
-    static List<String> getPushPop(VMParser.CommandType command,
-                                   String segment,
-                                   String index,
-                                   String file) {
+    List<String> getPushPop(VMParser.CommandType command, String segment, String index) {
         List<String> output = new ArrayList<>();
 
         switch (command) {
             case C_PUSH: {
-                output.addAll(getPushValue(segment, index, file));
-                // value to push will be in D
-                output.addAll(pushFromD());
+                if (!modes.contains(Mode.CACHED_TOP)) {
+                    output.addAll(getPushValue(segment, index));
+                    // value to push will be in D
+                    output.addAll(pushFromD());
+                } else if (topInD && getOperand(segment, index) != null) {
+                    output.addAll(materialize());
+                    pendingSegment = segment;
+                    pendingIndex = index;
+                } else {
+                    output.addAll(spill());
+                    output.addAll(getPushValue(segment, index));
+                    topInD = true;
+                }
                 break;
             }
             case C_POP: {
-                output.addAll(popToD());
+                output.addAll(popTop());
                 // value to pop will be in D
-                output.addAll(popToAddress(segment, index, file));
+                output.addAll(popToAddress(segment, index));
                 break;
             }
         }
         return output;
     }
 
-    static List<String> getLabel(String label, String file) {
-        List<String> block = new ArrayList<>();
-        block.add("(" + file + "$" + label + ")");
+    // after the file's last command, a top still cached in D is written out so the stack ends up in memory
+    List<String> getEnd() {
+        return spill();
+    }
+
+    // jumps can land on a label from anywhere, so the whole stack is in memory there
+    List<String> getLabel(String label) {
+        List<String> block = new ArrayList<>(spill());
+        block.add("(" + fileName + "$" + label + ")");
         return block;
     }
 
-    static List<String> getGoto(String label, String file) {
-        List<String> block = new ArrayList<>();
-        block.add("@" + file + "$" + label);
+    List<String> getGoto(String label) {
+        List<String> block = new ArrayList<>(spill());
+        block.add("@" + fileName + "$" + label);
         block.add("0;JMP");
         return block;
     }
 
-    static List<String> getIf(String label, String file) {
-        List<String> block = new ArrayList<>();
-        block.addAll(popToD());
-        block.add("@" + file + "$" + label);
+    List<String> getIf(String label) {
+        List<String> block = new ArrayList<>(popTop());
+        block.add("@" + fileName + "$" + label);
         block.add("D;JNE");
         return block;
     }
 
-    static List<String> getFunction(String function, String numLocals) {
-        List<String> block = new ArrayList<>();
+    List<String> getFunction(String function, String numLocals) {
+        List<String> block = new ArrayList<>(spill());
         block.add("(" + function + ")");
         int locals = Integer.parseInt(numLocals);
         if (locals > 0) {
@@ -147,10 +243,14 @@ class VMCode {
         return block;
     }
 
-    static List<String> getCall(String function, String numArgs) {
-        List<String> block = new ArrayList<>();
+    List<String> getCall(String function, String numArgs) {
+        List<String> block = new ArrayList<>(spill());
+        if (modes.contains(Mode.SHARED_CALLS)) {
+            block.addAll(getSharedCall(function, numArgs));
+            return block;
+        }
         // push return address
-        block.add("@RETURN_FROM_" + function + "_" + functionCall);
+        block.add("@" + uniqueLabel("RETURN_FROM_" + function + "_" + functionCall));
         block.add("D=A");
         block.addAll(pushFromD());
         // push saved LCL
@@ -187,13 +287,99 @@ class VMCode {
         block.add("@" + function);
         block.add("0;JMP");
         // continue after function
-        block.add("(RETURN_FROM_" + function + "_" + functionCall + ")");
+        block.add("(" + uniqueLabel("RETURN_FROM_" + function + "_" + functionCall) + ")");
         functionCall++;
 
         return block;
     }
 
-    static List<String> getReturn() {
+    // return address in R13, argument count in R14 and the function in D, the shared routine does the rest
+    private List<String> getSharedCall(String function, String numArgs) {
+        List<String> block = new ArrayList<>();
+        String returnLabel = uniqueLabel("RETURN_FROM_" + function + "_" + functionCall);
+        block.add("@" + returnLabel);
+        block.add("D=A");
+        block.add("@R13");
+        block.add("M=D");
+        block.add("@" + numArgs);
+        block.add("D=A");
+        block.add("@R14");
+        block.add("M=D");
+        block.add("@" + function);
+        block.add("D=A");
+        block.add("@" + CALL_ROUTINE);
+        block.add("0;JMP");
+        block.add("(" + returnLabel + ")");
+        functionCall++;
+        return block;
+    }
+
+    private static List<String> callRoutine() {
+        List<String> block = new ArrayList<>();
+        block.add("(" + CALL_ROUTINE + ")");
+        // keep the function address while the frame is saved
+        block.add("@R15");
+        block.add("M=D");
+        // push return address
+        block.add("@R13");
+        block.add("D=M");
+        block.addAll(pushFromD());
+        // push saved LCL
+        block.add("@LCL");
+        block.add("D=M");
+        block.addAll(pushFromD());
+        // push saved ARG
+        block.add("@ARG");
+        block.add("D=M");
+        block.addAll(pushFromD());
+        // push saved THIS
+        block.add("@THIS");
+        block.add("D=M");
+        block.addAll(pushFromD());
+        // push saved THAT
+        block.add("@THAT");
+        block.add("D=M");
+        block.addAll(pushFromD());
+        // update ARG for function call
+        block.add("@R14");
+        block.add("D=M");
+        block.add("@5");
+        block.add("D=D+A");
+        block.add("@SP");
+        block.add("D=M-D");
+        block.add("@ARG");
+        block.add("M=D");
+        // update LCL before function
+        block.add("@SP");
+        block.add("D=M");
+        block.add("@LCL");
+        block.add("M=D");
+        // jump to function
+        block.add("@R15");
+        block.add("A=M");
+        block.add("0;JMP");
+        return block;
+    }
+
+    List<String> getReturn() {
+        List<String> block = new ArrayList<>(spill());
+        if (modes.contains(Mode.SHARED_CALLS)) {
+            block.add("@" + RETURN_ROUTINE);
+            block.add("0;JMP");
+            return block;
+        }
+        block.addAll(returnBlock());
+        return block;
+    }
+
+    private static List<String> returnRoutine() {
+        List<String> block = new ArrayList<>();
+        block.add("(" + RETURN_ROUTINE + ")");
+        block.addAll(returnBlock());
+        return block;
+    }
+
+    private static List<String> returnBlock() {
         List<String> block = new ArrayList<>();
 
         // store frame in R14
@@ -239,6 +425,11 @@ class VMCode {
         return block;
     }
 
+    // generated labels use ':' so they can't clash with file$label or file.static symbols
+    private String uniqueLabel(String label) {
+        return fileName + ":" + label;
+    }
+
     // value to pushFromD must be in D register
     private static List<String> pushFromD() {
         List<String> output = new ArrayList<>();
@@ -250,6 +441,91 @@ class VMCode {
         return output;
     }
 
+    // stores a top of the stack cached in D, nothing if it's already in memory
+    private List<String> spill() {
+        List<String> block = materialize();
+        if (topInD) {
+            topInD = false;
+            block.addAll(pushFromD());
+        }
+        return block;
+    }
+
+    // the top of the stack in D and off the stack, it's only read from memory if it isn't cached in D
+    private List<String> popTop() {
+        List<String> block = materialize();
+        if (topInD) {
+            topInD = false;
+        } else {
+            block.addAll(popToD());
+        }
+        return block;
+    }
+
+    // pushes a held back value after all, the top cached in D goes to memory and the value takes its place
+    private List<String> materialize() {
+        List<String> block = new ArrayList<>();
+        if (pendingSegment != null) {
+            block.addAll(pushFromD());
+            block.addAll(getPushValue(pendingSegment, pendingIndex));
+            pendingSegment = null;
+            pendingIndex = null;
+        }
+        return block;
+    }
+
+    // leaves a constant in A or any other value in M without touching D, null where that's no cheaper than
+    // loading it through D
+    private List<String> getOperand(String segment, String index) {
+        List<String> block = new ArrayList<>();
+        switch (segment) {
+            case "constant": {
+                block.add("@" + index);
+                return block;
+            }
+            case "static": {
+                block.add("@" + fileName + "." + index);
+                return block;
+            }
+            case "temp": {
+                block.add("@" + (5 + Integer.parseInt(index)));
+                return block;
+            }
+            case "pointer": {
+                block.add("@" + (3 + Integer.parseInt(index)));
+                return block;
+            }
+            case "local": {
+                block.add("@LCL");
+                break;
+            }
+            case "argument": {
+                block.add("@ARG");
+                break;
+            }
+            case "this": {
+                block.add("@THIS");
+                break;
+            }
+            case "that": {
+                block.add("@THAT");
+                break;
+            }
+            default: {
+                return null;
+            }
+        }
+        int offset = Integer.parseInt(index);
+        if (offset > MAX_OPERAND_OFFSET) {
+            return null;
+        }
+        block.add("A=M");
+        for (int i = 0; i < offset; i++) {
+            block.add("A=A+1");
+        }
+        return block;
+    }
+
     // popped value will be in D
     private static List<String> popToD() {
         List<String> output = new ArrayList<>();
@@ -284,33 +560,199 @@ class VMCode {
     }
 
 
-    private static List<String> trueFalseBlock() {
+    private List<String> getComparison(String command) {
+        String falseLabel = uniqueLabel("FALSE" + resume);
+        String trueLabel = uniqueLabel("TRUE" + resume);
+        String resumeLabel = uniqueLabel("RESUME" + resume);
+        List<String> onFalse = new ArrayList<>();
+        onFalse.add("(" + falseLabel + ")");
+        onFalse.add("@SP");
+        onFalse.add("A=M-1");
+        onFalse.add("M=0");
+        onFalse.add("@" + resumeLabel);
+        onFalse.add("0;JMP");
+
+        List<String> block = popToD();
+        block.addAll(compare(command, uniqueLabel("SAME" + resume), uniqueLabel("Y_NEGATIVE" + resume),
+                trueLabel, falseLabel, onFalse));
+        block.add("(" + trueLabel + ")");
+        block.add("@SP");
+        block.add("A=M-1");
+        block.add("M=-1");
+        block.add("(" + resumeLabel + ")");
+        resume++;
+        return block;
+    }
+
+    // x is popped as well and the result left in D
+    private List<String> getCachedComparison(String command) {
+        if (modes.contains(Mode.SHARED_COMPARISONS)) {
+            List<String> block = new ArrayList<>(spill());
+            block.addAll(getSharedComparison(command));
+            return block;
+        }
+        if (pendingSegment != null && (command.equals("eq") || pendingSegment.equals("constant"))) {
+            return getOperandComparison(command);
+        }
+        String falseLabel = uniqueLabel("FALSE" + resume);
+        String trueLabel = uniqueLabel("TRUE" + resume);
+        String resumeLabel = uniqueLabel("RESUME" + resume);
+        List<String> onFalse = new ArrayList<>();
+        onFalse.add("(" + falseLabel + ")");
+        onFalse.add("D=0");
+        onFalse.add("@" + resumeLabel);
+        onFalse.add("0;JMP");
+
+        List<String> block = materialize();
+        if (topInD) {
+            // storing y where SP points leaves SP, A and D just as popping it would
+            block.add("@SP");
+            block.add("A=M");
+            block.add("M=D");
+        } else {
+            block.addAll(popToD());
+        }
+        block.addAll(compare(command, uniqueLabel("SAME" + resume), uniqueLabel("Y_NEGATIVE" + resume),
+                trueLabel, falseLabel, onFalse));
+        block.add("(" + trueLabel + ")");
+        block.add("D=-1");
+        block.add("(" + resumeLabel + ")");
+        block.add("@SP");
+        block.add("M=M-1");
+        topInD = true;
+        resume++;
+        return block;
+    }
+
+    // return address in R13, the shared routine leaves the result on the stack
+    private List<String> getSharedComparison(String command) {
+        List<String> block = new ArrayList<>();
+        String resumeLabel = uniqueLabel("RESUME" + resume);
+        block.add("@" + resumeLabel);
+        block.add("D=A");
+        block.add("@R13");
+        block.add("M=D");
+        block.add("@" + comparisonRoutine(command));
+        block.add("0;JMP");
+        block.add("(" + resumeLabel + ")");
+        resume++;
+        return block;
+    }
+
+    // x is in D and y was never pushed, so x - y is taken in place. a constant y is never negative, which leaves
+    // x < 0 as the only case where gt and lt could overflow
+    private List<String> getOperandComparison(String command) {
+        String falseLabel = uniqueLabel("FALSE" + resume);
+        String trueLabel = uniqueLabel("TRUE" + resume);
+        String resumeLabel = uniqueLabel("RESUME" + resume);
+        List<String> block = new ArrayList<>();
+        if (!command.equals("eq")) {
+            block.add("@" + (command.equals("gt") ? falseLabel : trueLabel));
+            block.add("D;JLT");
+        }
+        block.addAll(getOperand(pendingSegment, pendingIndex));
+        block.add(pendingSegment.equals("constant") ? "D=D-A" : "D=D-M");
+        block.add("@" + trueLabel);
+        block.add(command.equals("eq") ? "D;JEQ" : command.equals("gt") ? "D;JGT" : "D;JLT");
+        block.add("(" + falseLabel + ")");
+        block.add("D=0");
+        block.add("@" + resumeLabel);
+        block.add("0;JMP");
+        block.add("(" + trueLabel + ")");
+        block.add("D=-1");
+        block.add("(" + resumeLabel + ")");
+        pendingSegment = null;
+        pendingIndex = null;
+        resume++;
+        return block;
+    }
+
+    private static String comparisonRoutine(String command) {
+        return "VM:" + command.toUpperCase();
+    }
+
+    private static List<String> comparisonRoutines() {
         List<String> block = new ArrayList<>();
+        List<String> onFalse = new ArrayList<>();
+        onFalse.add("@" + FALSE_ROUTINE);
+        onFalse.add("0;JMP");
+        for (String command : new String[] {"eq", "gt", "lt"}) {
+            String routine = comparisonRoutine(command);
+            block.add("(" + routine + ")");
+            block.addAll(popToD());
+            block.addAll(compare(command, routine + "_SAME", routine + "_Y_NEGATIVE",
+                    TRUE_ROUTINE, FALSE_ROUTINE, onFalse));
+        }
+        block.add("(" + FALSE_ROUTINE + ")");
         block.add("@SP");
+        block.add("A=M-1");
+        block.add("M=0");
+        block.add("@R13");
         block.add("A=M");
-        block.add("M=-1");
+        block.add("0;JMP");
+        block.add("(" + TRUE_ROUTINE + ")");
         block.add("@SP");
-        block.add("M=M+1");
-        block.add("@RESUME" + resume);
+        block.add("A=M-1");
+        block.add("M=-1");
+        block.add("@R13");
+        block.add("A=M");
         block.add("0;JMP");
-        block.add("(FALSE" + resume + ")");
+        return block;
+    }
+
+    // expects y popped into D with A at it, jumps to trueLabel if x command y, otherwise continues into onFalse
+    // which has to jump away. x - y overflows when the signs differ, so gt and lt only subtract once the signs are
+    // known to match
+    private static List<String> compare(String command, String sameLabel, String yNegativeLabel,
+                                        String trueLabel, String falseLabel, List<String> onFalse) {
+        List<String> block = new ArrayList<>();
+        if (command.equals("eq")) {
+            // equality survives wrap around
+            block.add("A=A-1");
+            block.add("D=M-D");
+            block.add("@" + trueLabel);
+            block.add("D;JEQ");
+            block.addAll(onFalse);
+            return block;
+        }
+        boolean greater = command.equals("gt");
+        block.add("@" + yNegativeLabel);
+        block.add("D;JLT");
+        // y >= 0 and x < 0 means x < y
+        block.add("@SP");
+        block.add("A=M-1");
+        block.add("D=M");
+        block.add("@" + (greater ? falseLabel : trueLabel));
+        block.add("D;JLT");
+        // same sign, x - y can't overflow
+        block.add("(" + sameLabel + ")");
         block.add("@SP");
         block.add("A=M");
-        block.add("M=0");
+        block.add("D=M");
+        block.add("A=A-1");
+        block.add("D=M-D");
+        block.add("@" + trueLabel);
+        block.add(greater ? "D;JGT" : "D;JLT");
+        block.addAll(onFalse);
+        // y < 0 and x >= 0 means x > y
+        block.add("(" + yNegativeLabel + ")");
         block.add("@SP");
-        block.add("M=M+1");
-        block.add("(RESUME" + resume + ")");
-        resume++;
+        block.add("A=M-1");
+        block.add("D=M");
+        block.add("@" + (greater ? trueLabel : falseLabel));
+        block.add("D;JGE");
+        block.add("@" + sameLabel);
+        block.add("0;JMP");
         return block;
     }
 
     // retrieved value must be stored in D register on return
-    private static List<String> getPushValue(String segment, String index, String file)
+    private List<String> getPushValue(String segment, String index)
             throws IllegalArgumentException {
         List<String> block = new ArrayList<>();
 
         if (segment.equals("static")) {
-            block.add("@" + file + "." + index);
+            block.add("@" + fileName + "." + index);
             block.add("D=M");
             return block;
         }
@@ -363,7 +805,7 @@ class VMCode {
     }
 
      // incoming value must be available in D
-    private static List<String> popToAddress(String segment, String index, String file)
+    private List<String> popToAddress(String segment, String index)
             throws IllegalArgumentException {
         List<String> block = new ArrayList<>();
 
@@ -372,7 +814,7 @@ class VMCode {
         }
 
         if (segment.equals("static")) {
-            block.add("@" + file + "." + index);
+            block.add("@" + fileName + "." + index);
             block.add("M=D");
             return block;
         }
@@ -436,4 +878,14 @@ class VMCode {
 
         return block;
     }
+
+    enum Mode {
+        // one global call and return routine instead of inlining them at every call site
+        SHARED_CALLS,
+        // one routine per comparison operator, reached through a return address in R13
+        SHARED_COMPARISONS,
+        // the top of the stack stays in D between commands and is only written out for jumps, labels, calls and
+        // returns, or to make room for a push that the next command can't read in place
+        CACHED_TOP
+    }
 }
@@ -0,0 +1,497 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// runs .vm programs directly, memory is laid out as VMCode and the Assembler would lay it out on the Hack machine
+class VMInterpreter {
+
+    private static final int RAM_SIZE = 1 << 15;
+    private static final int SP = 0;
+    private static final int LCL = 1;
+    private static final int ARG = 2;
+    private static final int THIS = 3;
+    private static final int THAT = 4;
+    private static final int TEMP = 5;
+    private static final int STATIC_START = 16;
+    private static final int STATIC_END = 256;
+    private static final int STACK_START = 256;
+    private static final long DEFAULT_STEPS = 100_000_000L;
+
+    // commands are loaded into opcode, first and second argument arrays
+    private static final int PUSH_CONSTANT = 0;
+    // temp, pointer and static have fixed addresses
+    private static final int PUSH_FIXED = 1;
+    // local, argument, this and that are relative to the pointer in RAM[first]
+    private static final int PUSH_INDIRECT = 2;
+    private static final int POP_FIXED = 3;
+    private static final int POP_INDIRECT = 4;
+    private static final int ADD = 5;
+    private static final int SUB = 6;
+    private static final int NEG = 7;
+    private static final int EQ = 8;
+    private static final int GT = 9;
+    private static final int LT = 10;
+    private static final int AND = 11;
+    private static final int OR = 12;
+    private static final int NOT = 13;
+    private static final int GOTO = 14;
+    private static final int IF_GOTO = 15;
+    private static final int FUNCTION = 16;
+    private static final int CALL = 17;
+    private static final int RETURN = 18;
+    // how many values each opcode pops, by opcode
+    private static final int[] POPS = {0, 0, 0, 1, 1, 2, 2, 1, 2, 2, 2, 2, 2, 1, 0, 1, 0, 0, 1};
+
+    private int[] opcodes = new int[256];
+    private int[] firstArgs = new int[256];
+    private int[] secondArgs = new int[256];
+    private int size = 0;
+
+    // names waiting to be resolved once every file is loaded, by command index
+    private Map<Integer, String> pendingTargets = new HashMap<>();
+    private Map<String, Integer> labels = new HashMap<>();
+    private Map<String, Integer> functions = new LinkedHashMap<>();
+    private Map<String, Integer> statics = new LinkedHashMap<>();
+
+    // function index of each command, for the profile
+    private int[] functionOf = new int[256];
+    private List<String> functionNames = new ArrayList<>();
+
+    private final int[] ram = new int[RAM_SIZE];
+    private int pc = 0;
+    private long steps = 0;
+    private long[] functionSteps;
+    private long[] functionCalls;
+
+    private VMInterpreter() {
+        functionNames.add("(top level)");
+    }
+
+    // a .vm file or a directory of them, in the same order VMTranslator combines them
+    static VMInterpreter load(String path) throws IllegalArgumentException {
+        List<String> files = new ArrayList<>();
+        File file = new File(path);
+        if (file.isDirectory() && file.listFiles() != null) {
+            //noinspection ConstantConditions
+            files.addAll(Arrays.stream(file.listFiles())
+                    .map(File::getName)
+                    .filter(name -> name.endsWith(".vm"))
+                    .sorted()
+                    .map(name -> path + "/" + name)
+                    .collect(Collectors.toList()));
+        } else if (path.endsWith(".vm") && file.exists()) {
+            files.add(path);
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No valid files to process");
+        }
+
+        VMInterpreter interpreter = new VMInterpreter();
+        for (String vmFile : files) {
+            interpreter.loadFile(vmFile);
+        }
+        interpreter.resolveTargets();
+        interpreter.reset();
+        return interpreter;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: VMInterpreter file.vm or directory [steps] [address=value ...] [profile] [time]");
+            return;
+        }
+        VMInterpreter interpreter;
+        try {
+            interpreter = load(args[0]);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            System.out.println("File: " + args[0] + "\n---Error: " + e.getMessage());
+            return;
+        }
+
+        long maxSteps = DEFAULT_STEPS;
+        boolean profile = false;
+        boolean time = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int equals = arg.indexOf('=');
+            if (arg.equals("profile")) {
+                profile = true;
+            } else if (arg.equals("time")) {
+                time = true;
+            } else if (equals > 0) {
+                interpreter.poke(Integer.parseInt(arg.substring(0, equals)), Integer.parseInt(arg.substring(equals + 1)));
+            } else {
+                maxSteps = Long.parseLong(arg);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            interpreter.run(maxSteps, profile);
+        } catch (IllegalArgumentException e) {
+            System.out.println("File: " + args[0] + "\n---Error: " + e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println("Commands: " + interpreter.getSteps() + (interpreter.isHalted() ? "" : " (stopped at limit)"));
+        StringBuilder registers = new StringBuilder("R0-R15:");
+        for (int i = 0; i < 16; i++) {
+            registers.append(' ').append(interpreter.peek(i));
+        }
+        System.out.println(registers);
+        if (profile) {
+            interpreter.printProfile();
+        }
+        if (time) {
+            System.out.println("Ran in " + elapsed / 1_000_000 + " ms, " +
+                    interpreter.getSteps() * 1000 / Math.max(elapsed, 1) + " million commands per second");
+        }
+    }
+
+    int peek(int address) {
+        return ram[address & (RAM_SIZE - 1)];
+    }
+
+    void poke(int address, int value) {
+        ram[address & (RAM_SIZE - 1)] = (short) value;
+    }
+
+    long getSteps() {
+        return steps;
+    }
+
+    // past the last command, or a goto to itself as in Sys.halt
+    boolean isHalted() {
+        return pc >= size || (opcodes[pc] == GOTO && firstArgs[pc] == pc);
+    }
+
+    // starts at Sys.init the way VMCode.getInit does, files without it start at their first command
+    void reset() {
+        Integer init = functions.get("Sys.init");
+        if (init != null) {
+            ram[SP] = STACK_START;
+            pc = init;
+        } else {
+            pc = 0;
+        }
+    }
+
+    // runs until the program halts or maxSteps more commands have executed. a stack growing past the end of RAM,
+    // popping more than it holds or a return with no frame to return to stops it on that command
+    void run(long maxSteps, boolean profile) throws IllegalArgumentException {
+        if (profile && functionSteps == null) {
+            functionSteps = new long[functionNames.size()];
+            functionCalls = new long[functionNames.size()];
+        }
+        int[] ram = this.ram;
+        int[] opcodes = this.opcodes;
+        int[] firstArgs = this.firstArgs;
+        int[] secondArgs = this.secondArgs;
+        int pc = this.pc;
+        int sp = ram[SP];
+        long remaining = maxSteps;
+        // set when the program can't go on, it stops on the command at fault
+        String error = null;
+
+        execution:
+        while (remaining > 0 && pc < size) {
+            if (profile) {
+                functionSteps[functionOf[pc]]++;
+            }
+            int opcode = opcodes[pc];
+            if (sp < POPS[opcode]) {
+                error = "stack underflow";
+                break execution;
+            }
+            int first = firstArgs[pc];
+            switch (opcode) {
+                case PUSH_CONSTANT:
+                    if (sp == RAM_SIZE) {
+                        error = "stack overflow";
+                        break execution;
+                    }
+                    ram[sp++] = first;
+                    break;
+                case PUSH_FIXED:
+                    if (sp == RAM_SIZE) {
+                        error = "stack overflow";
+                        break execution;
+                    }
+                    ram[sp++] = ram[first];
+                    break;
+                case PUSH_INDIRECT:
+                    if (sp == RAM_SIZE) {
+                        error = "stack overflow";
+                        break execution;
+                    }
+                    ram[sp++] = ram[(ram[first] + secondArgs[pc]) & (RAM_SIZE - 1)];
+                    break;
+                case POP_FIXED: ram[first] = ram[--sp]; break;
+                case POP_INDIRECT: ram[(ram[first] + secondArgs[pc]) & (RAM_SIZE - 1)] = ram[--sp]; break;
+                case ADD: sp--; ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]); break;
+                case SUB: sp--; ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]); break;
+                case NEG: ram[sp - 1] = (short) -ram[sp - 1]; break;
+                case EQ: sp--; ram[sp - 1] = ram[sp - 1] == ram[sp] ? -1 : 0; break;
+                case GT: sp--; ram[sp - 1] = ram[sp - 1] > ram[sp] ? -1 : 0; break;
+                case LT: sp--; ram[sp - 1] = ram[sp - 1] < ram[sp] ? -1 : 0; break;
+                case AND: sp--; ram[sp - 1] = ram[sp - 1] & ram[sp]; break;
+                case OR: sp--; ram[sp - 1] = ram[sp - 1] | ram[sp]; break;
+                case NOT: ram[sp - 1] = ~ram[sp - 1]; break;
+                case GOTO: {
+                    if (first == pc) {
+                        // halted in a loop on itself
+                        break execution;
+                    }
+                    pc = first;
+                    remaining--;
+                    continue;
+                }
+                case IF_GOTO: {
+                    if (ram[--sp] != 0) {
+                        pc = first;
+                        remaining--;
+                        continue;
+                    }
+                    break;
+                }
+                case FUNCTION: {
+                    if (sp + first > RAM_SIZE) {
+                        error = "stack overflow";
+                        break execution;
+                    }
+                    for (int i = 0; i < first; i++) {
+                        ram[sp++] = 0;
+                    }
+                    break;
+                }
+                case CALL: {
+                    if (profile) {
+                        functionCalls[functionOf[first]]++;
+                    }
+                    if (sp + 5 > RAM_SIZE) {
+                        error = "stack overflow";
+                        break execution;
+                    }
+                    // same frame as VMCode.getCall, the return address is a command index
+                    ram[sp] = pc + 1;
+                    ram[sp + 1] = ram[LCL];
+                    ram[sp + 2] = ram[ARG];
+                    ram[sp + 3] = ram[THIS];
+                    ram[sp + 4] = ram[THAT];
+                    sp += 5;
+                    ram[ARG] = sp - 5 - secondArgs[pc];
+                    ram[LCL] = sp;
+                    pc = first;
+                    remaining--;
+                    continue;
+                }
+                case RETURN: {
+                    int frame = ram[LCL];
+                    if (frame < 5 || frame > RAM_SIZE || ram[ARG] < 0 || ram[ARG] >= RAM_SIZE) {
+                        error = "return without a call frame";
+                        break execution;
+                    }
+                    int returnAddress = ram[frame - 5];
+                    ram[ram[ARG]] = ram[--sp];
+                    sp = ram[ARG] + 1;
+                    ram[THAT] = ram[frame - 1];
+                    ram[THIS] = ram[frame - 2];
+                    ram[ARG] = ram[frame - 3];
+                    ram[LCL] = ram[frame - 4];
+                    pc = returnAddress;
+                    remaining--;
+                    continue;
+                }
+            }
+            pc++;
+            remaining--;
+        }
+
+        ram[SP] = sp;
+        steps += maxSteps - remaining;
+        this.pc = pc;
+        if (error != null) {
+            throw new IllegalArgumentException(error + " at " + functionNames.get(functionOf[pc]));
+        }
+    }
+
+    // commands executed and calls for each function, busiest first
+    void printProfile() {
+        if (functionSteps == null) {
+            return;
+        }
+        Integer[] order = new Integer[functionNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Long.compare(functionSteps[y], functionSteps[x]));
+        System.out.println(String.format("%12s %10s %6s  %s", "commands", "calls", "%", "function"));
+        for (int function : order) {
+            if (functionSteps[function] == 0) {
+                continue;
+            }
+            System.out.println(String.format("%12d %10d %5.1f%%  %s", functionSteps[function], functionCalls[function],
+                    100.0 * functionSteps[function] / Math.max(steps, 1), functionNames.get(function)));
+        }
+    }
+
+    private void loadFile(String path) throws IllegalArgumentException {
+        VMParser parser = VMParser.get(path);
+        String name = new File(path).getName();
+        String fileName = name.substring(0, name.length() - 3);
+        int function = 0;
+        while (parser.hasMore()) {
+            parser.advance();
+            if (parser.tokenEmpty()) {
+                continue;
+            }
+            switch (parser.commandType()) {
+                case C_ARITHMETIC: {
+                    add(arithmeticOpcode(parser.arg1()), 0, 0, function);
+                    break;
+                }
+                case C_PUSH: {
+                    addPushPop(true, parser.arg1(), parser.arg2(), fileName, function);
+                    break;
+                }
+                case C_POP: {
+                    addPushPop(false, parser.arg1(), parser.arg2(), fileName, function);
+                    break;
+                }
+                case C_LABEL: {
+                    // labels take no command, they point at the one after them
+                    labels.put(fileName + "$" + parser.arg1(), size);
+                    break;
+                }
+                case C_GOTO: {
+                    pendingTargets.put(size, fileName + "$" + parser.arg1());
+                    add(GOTO, 0, 0, function);
+                    break;
+                }
+                case C_IF: {
+                    pendingTargets.put(size, fileName + "$" + parser.arg1());
+                    add(IF_GOTO, 0, 0, function);
+                    break;
+                }
+                case C_FUNCTION: {
+                    function = functionNames.size();
+                    functionNames.add(parser.arg1());
+                    functions.put(parser.arg1(), size);
+                    add(FUNCTION, Integer.parseInt(parser.arg2()), 0, function);
+                    break;
+                }
+                case C_CALL: {
+                    pendingTargets.put(size, parser.arg1());
+                    add(CALL, 0, Integer.parseInt(parser.arg2()), function);
+                    break;
+                }
+                case C_RETURN: {
+                    add(RETURN, 0, 0, function);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void addPushPop(boolean push, String segment, String index, String fileName, int function)
+            throws IllegalArgumentException {
+        int value = Integer.parseInt(index);
+        switch (segment) {
+            case "constant": {
+                if (!push) {
+                    throw new IllegalArgumentException("Can't pop to constant segment");
+                }
+                add(PUSH_CONSTANT, value, 0, function);
+                return;
+            }
+            case "local": {
+                add(push ? PUSH_INDIRECT : POP_INDIRECT, LCL, value, function);
+                return;
+            }
+            case "argument": {
+                add(push ? PUSH_INDIRECT : POP_INDIRECT, ARG, value, function);
+                return;
+            }
+            case "this": {
+                add(push ? PUSH_INDIRECT : POP_INDIRECT, THIS, value, function);
+                return;
+            }
+            case "that": {
+                add(push ? PUSH_INDIRECT : POP_INDIRECT, THAT, value, function);
+                return;
+            }
+            case "temp": {
+                add(push ? PUSH_FIXED : POP_FIXED, TEMP + value, 0, function);
+                return;
+            }
+            case "pointer": {
+                add(push ? PUSH_FIXED : POP_FIXED, THIS + value, 0, function);
+                return;
+            }
+            case "static": {
+                add(push ? PUSH_FIXED : POP_FIXED, staticAddress(fileName + "." + index), 0, function);
+                return;
+            }
+        }
+        throw new IllegalArgumentException(segment + " is not a valid segment");
+    }
+
+    // the Assembler gives each file.index variable the next free address in order of first use
+    private int staticAddress(String symbol) throws IllegalArgumentException {
+        Integer address = statics.get(symbol);
+        if (address == null) {
+            address = STATIC_START + statics.size();
+            if (address >= STATIC_END) {
+                throw new IllegalArgumentException("Too many static variables for " + symbol);
+            }
+            statics.put(symbol, address);
+        }
+        return address;
+    }
+
+    private static int arithmeticOpcode(String command) throws IllegalArgumentException {
+        switch (command) {
+            case "add": return ADD;
+            case "sub": return SUB;
+            case "neg": return NEG;
+            case "eq": return EQ;
+            case "gt": return GT;
+            case "lt": return LT;
+            case "and": return AND;
+            case "or": return OR;
+            case "not": return NOT;
+            default: throw new IllegalArgumentException(command + " is not a valid arithmetic command");
+        }
+    }
+
+    private void add(int opcode, int first, int second, int function) {
+        if (size == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            firstArgs = Arrays.copyOf(firstArgs, size * 2);
+            secondArgs = Arrays.copyOf(secondArgs, size * 2);
+            functionOf = Arrays.copyOf(functionOf, size * 2);
+        }
+        opcodes[size] = opcode;
+        firstArgs[size] = first;
+        secondArgs[size] = second;
+        functionOf[size] = function;
+        size++;
+    }
+
+    private void resolveTargets() throws IllegalArgumentException {
+        for (Map.Entry<Integer, String> pending : pendingTargets.entrySet()) {
+            int command = pending.getKey();
+            Integer target = opcodes[command] == CALL ? functions.get(pending.getValue()) : labels.get(pending.getValue());
+            if (target == null) {
+                throw new IllegalArgumentException(pending.getValue() + " is not defined");
+            }
+            firstArgs[command] = target;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// writes .vm files again with fewer commands, leaving the stack, memory and control flow as the originals would.
+// the sources are left alone, the optimized files keep their names in a separate output directory
+class VMOptimizer {
+
+    private static final String TOP_LEVEL = "(top level)";
+    // following gotos from label to label gives up after this many, so a loop of them can't hang
+    private static final int MAX_THREADING = 64;
+
+    private List<Command> commands;
+    // command count of each function before optimizing, in file order
+    private final Map<String, Integer> before;
+
+    private VMOptimizer(List<Command> commands) {
+        this.commands = commands;
+        this.before = countByFunction(commands);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: VMOptimizer file.vm or directory [output directory] [time]");
+            return;
+        }
+        List<String> options = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        boolean time = options.remove("time");
+        long startTime = System.nanoTime();
+        List<String> files = getFiles(args[0]);
+        if (files.isEmpty()) {
+            System.out.println("No valid files to process");
+            return;
+        }
+        File outputDirectory = options.isEmpty() ? defaultOutputDirectory(args[0]) : new File(options.get(0));
+        if (isSourceDirectory(outputDirectory, files)) {
+            System.out.println("Output directory " + outputDirectory + " holds the sources, choose another one");
+            return;
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.out.println("Can't create output directory " + outputDirectory);
+            return;
+        }
+        int totalBefore = 0;
+        int totalAfter = 0;
+        for (String file : files) {
+            String outFileName = new File(outputDirectory, new File(file).getName()).getPath();
+            VMOptimizer optimizer;
+            try {
+                optimizer = load(file);
+                optimizer.optimize();
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                System.out.println("File: " + file + "\n---Error: " + e.getMessage());
+                return;
+            }
+            try {
+                optimizer.write(outFileName);
+            } catch (UncheckedIOException e) {
+                System.out.println("Error writing to file " + outFileName);
+                return;
+            }
+            System.out.println("Optimized file: " + outFileName);
+            optimizer.printReport();
+            totalBefore += optimizer.before.values().stream().mapToInt(Integer::intValue).sum();
+            totalAfter += optimizer.commands.size();
+        }
+        System.out.println("Total: " + totalBefore + " -> " + totalAfter + " commands");
+        if (time) {
+            System.out.println("Optimized " + files.size() + " file(s) in " +
+                    (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        }
+    }
+
+    // next to the input, named after the directory the sources are in with -opt added
+    private static File defaultOutputDirectory(String path) {
+        File file = new File(path).getAbsoluteFile();
+        File directory = file.isDirectory() ? file : file.getParentFile();
+        return new File(directory.getPath() + "-opt");
+    }
+
+    private static boolean isSourceDirectory(File directory, List<String> files) {
+        File target = directory.getAbsoluteFile().toPath().normalize().toFile();
+        return files.stream()
+                .map(file -> new File(file).getAbsoluteFile().toPath().normalize().getParent().toFile())
+                .anyMatch(target::equals);
+    }
+
+    // a .vm file or every .vm file in a directory
+    private static List<String> getFiles(String path) {
+        File file = new File(path);
+        if (file.isDirectory() && file.listFiles() != null) {
+            //noinspection ConstantConditions
+            return Arrays.stream(file.listFiles())
+                    .map(File::getName)
+                    .filter(name -> name.endsWith(".vm"))
+                    .sorted()
+                    .map(name -> path + "/" + name)
+                    .collect(Collectors.toList());
+        } else if (path.endsWith(".vm") && file.exists()) {
+            return Collections.singletonList(path);
+        }
+        return Collections.emptyList();
+    }
+
+    static VMOptimizer load(String file) throws IllegalArgumentException, UnsupportedOperationException {
+        List<Command> commands = new ArrayList<>();
+        VMParser parser = VMParser.get(file);
+        while (parser.hasMore()) {
+            parser.advance();
+            VMParser.CommandType type = parser.commandType();
+            switch (type) {
+                case C_RETURN:
+                    commands.add(new Command(type, null, null));
+                    break;
+                case C_PUSH:
+                case C_POP:
+                case C_FUNCTION:
+                case C_CALL:
+                    commands.add(new Command(type, parser.arg1(), parser.arg2()));
+                    break;
+                default:
+                    commands.add(new Command(type, parser.arg1(), null));
+                    break;
+            }
+        }
+        return new VMOptimizer(commands);
+    }
+
+    // every rewrite can open up others, so they run until none applies
+    void optimize() {
+        int size;
+        do {
+            size = commands.size();
+            commands = rewrite(commands);
+            threadJumps();
+            removeUnusedLabels();
+            removeUnreachable();
+        } while (commands.size() < size);
+    }
+
+    private void write(String outFileName) throws UncheckedIOException {
+        OutputSink output = OutputSink.open(outFileName);
+        for (Command command : commands) {
+            output.add(command.toString());
+        }
+        output.close();
+    }
+
+    private void printReport() {
+        Map<String, Integer> after = countByFunction(commands);
+        for (Map.Entry<String, Integer> function : before.entrySet()) {
+            int count = after.getOrDefault(function.getKey(), 0);
+            if (count < function.getValue()) {
+                System.out.println(String.format("%8d -> %6d  %s", function.getValue(), count, function.getKey()));
+            }
+        }
+    }
+
+    private static Map<String, Integer> countByFunction(List<Command> commands) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        String function = TOP_LEVEL;
+        for (Command command : commands) {
+            if (command.type == VMParser.CommandType.C_FUNCTION) {
+                function = command.arg1;
+            }
+            counts.merge(function, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    // rules that look back from the end of the commands kept so far, applied as each command is added
+    private static List<Command> rewrite(List<Command> commands) {
+        List<Command> out = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            out.add(command);
+            boolean changed;
+            do {
+                changed = removeDoubleNot(out) || removePushPop(out) || removeZeroOperand(out)
+                        || replaceNotEqual(out) || foldConstantBranch(out);
+            } while (changed);
+        }
+        return out;
+    }
+
+    // not is bitwise, so two cancel out for any value
+    private static boolean removeDoubleNot(List<Command> out) {
+        if (!endsWith(out, 0, VMParser.CommandType.C_ARITHMETIC, "not")
+                || !endsWith(out, 1, VMParser.CommandType.C_ARITHMETIC, "not")) {
+            return false;
+        }
+        drop(out, 2);
+        return true;
+    }
+
+    // a value pushed and popped straight back to where it came from
+    private static boolean removePushPop(List<Command> out) {
+        if (out.size() < 2) {
+            return false;
+        }
+        Command push = out.get(out.size() - 2);
+        Command pop = out.get(out.size() - 1);
+        if (push.type != VMParser.CommandType.C_PUSH || pop.type != VMParser.CommandType.C_POP
+                || !push.arg1.equals(pop.arg1) || !push.arg2.equals(pop.arg2)) {
+            return false;
+        }
+        drop(out, 2);
+        return true;
+    }
+
+    // x + 0 and x - 0
+    private static boolean removeZeroOperand(List<Command> out) {
+        if (out.size() < 2 || !isConstant(out.get(out.size() - 2), 0)
+                || !(endsWith(out, 0, VMParser.CommandType.C_ARITHMETIC, "add")
+                || endsWith(out, 0, VMParser.CommandType.C_ARITHMETIC, "sub"))) {
+            return false;
+        }
+        drop(out, 2);
+        return true;
+    }
+
+    // eq, not, if-goto jumps when the operands differ, which is when their difference isn't 0
+    private static boolean replaceNotEqual(List<Command> out) {
+        if (!endsWith(out, 0, VMParser.CommandType.C_IF, null)
+                || !endsWith(out, 1, VMParser.CommandType.C_ARITHMETIC, "not")
+                || !endsWith(out, 2, VMParser.CommandType.C_ARITHMETIC, "eq")) {
+            return false;
+        }
+        Command jump = out.get(out.size() - 1);
+        drop(out, 3);
+        out.add(new Command(VMParser.CommandType.C_ARITHMETIC, "sub", null));
+        out.add(jump);
+        return true;
+    }
+
+    // a branch on a constant either always or never jumps. a constant op'd by neg or not is still a constant
+    private static boolean foldConstantBranch(List<Command> out) {
+        if (!endsWith(out, 0, VMParser.CommandType.C_IF, null)) {
+            return false;
+        }
+        int length;
+        boolean jumps;
+        if (out.size() >= 2 && isConstant(out.get(out.size() - 2), -1)) {
+            length = 2;
+            jumps = !isConstant(out.get(out.size() - 2), 0);
+        } else if (out.size() >= 3 && isConstant(out.get(out.size() - 3), -1)
+                && endsWith(out, 1, VMParser.CommandType.C_ARITHMETIC, "neg")) {
+            length = 3;
+            jumps = !isConstant(out.get(out.size() - 3), 0);
+        } else if (out.size() >= 3 && isConstant(out.get(out.size() - 3), -1)
+                && endsWith(out, 1, VMParser.CommandType.C_ARITHMETIC, "not")) {
+            // push constant only goes up to 32767, so its not is never 0
+            length = 3;
+            jumps = true;
+        } else {
+            return false;
+        }
+        Command jump = out.get(out.size() - 1);
+        drop(out, length);
+        if (jumps) {
+            out.add(new Command(VMParser.CommandType.C_GOTO, jump.arg1, null));
+        }
+        return true;
+    }
+
+    // a jump to a label that's only followed by a goto goes to that goto's label instead, and a goto to the very
+    // next label is dropped
+    private void threadJumps() {
+        Map<String, String> forwards = new HashMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i).type != VMParser.CommandType.C_LABEL) {
+                continue;
+            }
+            int next = i + 1;
+            while (next < commands.size() && commands.get(next).type == VMParser.CommandType.C_LABEL) {
+                next++;
+            }
+            if (next < commands.size() && commands.get(next).type == VMParser.CommandType.C_GOTO) {
+                forwards.put(commands.get(i).arg1, commands.get(next).arg1);
+            }
+        }
+        List<Command> out = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (command.type == VMParser.CommandType.C_GOTO || command.type == VMParser.CommandType.C_IF) {
+                String target = command.arg1;
+                for (int hops = 0; hops < MAX_THREADING && forwards.containsKey(target); hops++) {
+                    target = forwards.get(target);
+                }
+                if (!target.equals(command.arg1)) {
+                    command = new Command(command.type, target, null);
+                }
+                if (command.type == VMParser.CommandType.C_GOTO && labelFollows(i, target)) {
+                    continue;
+                }
+            }
+            out.add(command);
+        }
+        commands = out;
+    }
+
+    private boolean labelFollows(int index, String label) {
+        for (int i = index + 1; i < commands.size() && commands.get(i).type == VMParser.CommandType.C_LABEL; i++) {
+            if (commands.get(i).arg1.equals(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // labels are scoped to the file, so nothing outside it can jump to one
+    private void removeUnusedLabels() {
+        Set<String> targets = new HashSet<>();
+        for (Command command : commands) {
+            if (command.type == VMParser.CommandType.C_GOTO || command.type == VMParser.CommandType.C_IF) {
+                targets.add(command.arg1);
+            }
+        }
+        commands.removeIf(command -> command.type == VMParser.CommandType.C_LABEL && !targets.contains(command.arg1));
+    }
+
+    // nothing after a goto or return runs until the next label or function
+    private void removeUnreachable() {
+        List<Command> out = new ArrayList<>(commands.size());
+        boolean reachable = true;
+        for (Command command : commands) {
+            if (command.type == VMParser.CommandType.C_LABEL || command.type == VMParser.CommandType.C_FUNCTION) {
+                reachable = true;
+            }
+            if (reachable) {
+                out.add(command);
+            }
+            if (command.type == VMParser.CommandType.C_GOTO || command.type == VMParser.CommandType.C_RETURN) {
+                reachable = false;
+            }
+        }
+        commands = out;
+    }
+
+    // distance counts back from the last command, arg1 null matches any
+    private static boolean endsWith(List<Command> out, int distance, VMParser.CommandType type, String arg1) {
+        if (out.size() <= distance) {
+            return false;
+        }
+        Command command = out.get(out.size() - 1 - distance);
+        return command.type == type && (arg1 == null || arg1.equals(command.arg1));
+    }
+
+    // value -1 matches any constant
+    private static boolean isConstant(Command command, int value) {
+        return command.type == VMParser.CommandType.C_PUSH && command.arg1.equals("constant")
+                && (value < 0 || Integer.parseInt(command.arg2) == value);
+    }
+
+    private static void drop(List<Command> out, int count) {
+        out.subList(out.size() - count, out.size()).clear();
+    }
+
+    private static class Command {
+        final VMParser.CommandType type;
+        // the op for arithmetic, null for return
+        final String arg1;
+        // null unless push, pop, function or call
+        final String arg2;
+
+        Command(VMParser.CommandType type, String arg1, String arg2) {
+            this.type = type;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case C_ARITHMETIC: return arg1;
+                case C_PUSH: return "push " + arg1 + " " + arg2;
+                case C_POP: return "pop " + arg1 + " " + arg2;
+                case C_LABEL: return "label " + arg1;
+                case C_GOTO: return "goto " + arg1;
+                case C_IF: return "if-goto " + arg1;
+                case C_FUNCTION: return "function " + arg1 + " " + arg2;
+                case C_CALL: return "call " + arg1 + " " + arg2;
+                default: return "return";
+            }
+        }
+    }
+}
@@ -26,17 +26,8 @@ class VMParser extends AbstractParser {
 
     @Override
     protected void next() {
-        line = reader.nextLine();
-        removeComments();
-        removeWhitespace();
-    }
-
-    private void removeComments() {
-        line = removeLineComments(line);
-    }
-
-    private void removeWhitespace() {
-        line = line.trim().replaceAll(" +", " ");
+        // comments removed, words separated by single spaces
+        line = reader.nextCodeLine(true);
     }
 
     CommandType commandType() {
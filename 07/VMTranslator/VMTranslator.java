@@ -1,11 +1,18 @@
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 class VMTranslator extends AbstractTranslator {
 
     private static VMTranslator INSTANCE = new VMTranslator();
 
+    // functions no call from Sys.init reaches, only filled with the deadcode option
+    private Set<String> deadFunctions = Collections.emptySet();
+
     private VMTranslator() {
     }
 
@@ -22,6 +29,52 @@ class VMTranslator extends AbstractTranslator {
         return true;
     }
 
+    @Override
+    protected int getVersion() {
+        // 2 writes a top cached in D back at the end of each file
+        return 2;
+    }
+
+    @Override
+    protected boolean canTranslateInParallel() {
+        // each file has its own VMCode counters and label prefix
+        return true;
+    }
+
+    @Override
+    protected void prepare(List<String> filePaths) {
+        // the translator is a singleton, a run without the option mustn't drop what the last one found dead
+        deadFunctions = Collections.emptySet();
+        if (!hasOption("deadcode")) {
+            return;
+        }
+        Map<String, Integer> counts;
+        try {
+            CallGraph graph = CallGraph.build(filePaths);
+            if (!graph.contains("Sys.init")) {
+                System.out.println("No Sys.init to start from, keeping every function");
+                return;
+            }
+            deadFunctions = graph.unreachableFrom("Sys.init");
+            counts = countInstructions(filePaths);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            // the file is reported when it's translated
+            deadFunctions = Collections.emptySet();
+            return;
+        }
+        for (Map.Entry<String, Integer> function : counts.entrySet()) {
+            System.out.println(String.format("Removed %s (%d instructions)", function.getKey(), function.getValue()));
+        }
+        System.out.println("Removed " + counts.size() + " unreachable function(s), saving " +
+                counts.values().stream().mapToInt(Integer::intValue).sum() + " words of ROM");
+    }
+
+    @Override
+    protected boolean canCache() {
+        // which functions are dropped depends on every file's calls
+        return !hasOption("deadcode");
+    }
+
     @Override
     protected void preFileProcessing(String filePath) {}
 
@@ -37,7 +90,7 @@ class VMTranslator extends AbstractTranslator {
 
     @Override
     protected List<String> preTranslation() {
-        return VMCode.getInit();
+        return VMCode.getInit(codeModes());
     }
 
     @Override
@@ -46,101 +99,136 @@ class VMTranslator extends AbstractTranslator {
     }
 
     @Override
-    protected List<String> translate(String filePath, boolean addComments) throws IllegalArgumentException {
-        List<String> outputLines = new ArrayList<>();
+    protected void translate(String filePath, boolean addComments, OutputSink fileOutput) throws IllegalArgumentException {
+        PeepholeOptimizer optimizer = hasOption("peephole") ? new PeepholeOptimizer(fileOutput) : null;
+        OutputSink output = optimizer != null ? optimizer : fileOutput;
         VMParser parser = VMParser.get(filePath);
         // necessary for static segment
         String name = fileNameFromPath(filePath);
+        VMCode code = VMCode.forFile(name, codeModes());
         if (addComments) {
-            outputLines.add("// --------------------");
-            outputLines.add("// file: " + name);
-            outputLines.add("// --------------------");
+            output.add("// --------------------");
+            output.add("// file: " + name);
+            output.add("// --------------------");
         }
+        // commands of a function the deadcode option dropped are skipped up to the next function
+        boolean dead = false;
         while (parser.hasMore()) {
             parser.advance();
-            addDebugComments(addComments, parser, outputLines);
-            switch (parser.commandType()) {
-                case C_ARITHMETIC: {
-                    outputLines.addAll(VMCode.getArithmetic(parser.arg1()));
-                    break;
-                }
-                case C_PUSH: {
-                    outputLines.addAll(VMCode.getPushPop(parser.commandType(), parser.arg1(), parser.arg2(), name));
-                    break;
-                }
-                case C_POP: {
-                    outputLines.addAll(VMCode.getPushPop(parser.commandType(), parser.arg1(), parser.arg2(), name));
-                    break;
-                }
-                case C_LABEL: {
-                    outputLines.addAll(VMCode.getLabel(parser.arg1(), name));
-                    break;
-                }
-                case C_GOTO: {
-                    outputLines.addAll(VMCode.getGoto(parser.arg1(), name));
-                    break;
-                }
-                case C_IF: {
-                    outputLines.addAll(VMCode.getIf(parser.arg1(), name));
-                    break;
-                }
-                case C_FUNCTION: {
-                    outputLines.addAll(VMCode.getFunction(parser.arg1(), parser.arg2()));
-                    break;
-                }
-                case C_CALL: {
-                    outputLines.addAll(VMCode.getCall(parser.arg1(), parser.arg2()));
-                    break;
+            if (parser.commandType() == VMParser.CommandType.C_FUNCTION) {
+                dead = deadFunctions.contains(parser.arg1());
+            }
+            if (dead) {
+                continue;
+            }
+            addDebugComments(addComments, parser, output);
+            output.addAll(getCode(parser, code));
+        }
+        output.addAll(code.getEnd());
+
+        if (optimizer != null) {
+            optimizer.flush();
+            if (addComments) {
+                fileOutput.add("// peephole removed " + optimizer.getRemoved() + " instructions");
+            }
+        }
+    }
+
+    private List<String> getCode(VMParser parser, VMCode code) throws IllegalArgumentException {
+        switch (parser.commandType()) {
+            case C_ARITHMETIC: return code.getArithmetic(parser.arg1());
+            case C_PUSH:
+            case C_POP: return code.getPushPop(parser.commandType(), parser.arg1(), parser.arg2());
+            case C_LABEL: return code.getLabel(parser.arg1());
+            case C_GOTO: return code.getGoto(parser.arg1());
+            case C_IF: return code.getIf(parser.arg1());
+            case C_FUNCTION: return code.getFunction(parser.arg1(), parser.arg2());
+            case C_CALL: return code.getCall(parser.arg1(), parser.arg2());
+            default: return code.getReturn();
+        }
+    }
+
+    // instructions each dropped function would have taken up, labels don't take any
+    private Map<String, Integer> countInstructions(List<String> filePaths) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String path : filePaths) {
+            VMParser parser = VMParser.get(path);
+            VMCode code = VMCode.forFile(fileNameFromPath(path), codeModes());
+            String function = null;
+            while (parser.hasMore()) {
+                parser.advance();
+                if (parser.commandType() == VMParser.CommandType.C_FUNCTION) {
+                    function = deadFunctions.contains(parser.arg1()) ? parser.arg1() : null;
                 }
-                case C_RETURN: {
-                    outputLines.addAll(VMCode.getReturn());
-                    break;
+                if (function != null) {
+                    counts.merge(function, instructionCount(getCode(parser, code)), Integer::sum);
                 }
             }
+            if (function != null) {
+                counts.merge(function, instructionCount(code.getEnd()), Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static int instructionCount(List<String> block) {
+        return (int) block.stream().filter(line -> !line.startsWith("(")).count();
+    }
+
+    private Set<VMCode.Mode> codeModes() {
+        Set<VMCode.Mode> modes = EnumSet.noneOf(VMCode.Mode.class);
+        if (hasOption("sharedcalls")) {
+            modes.add(VMCode.Mode.SHARED_CALLS);
+        }
+        if (hasOption("sharedcompare")) {
+            modes.add(VMCode.Mode.SHARED_COMPARISONS);
+        }
+        if (hasOption("cachedtop")) {
+            modes.add(VMCode.Mode.CACHED_TOP);
         }
-        return outputLines;
+        return modes;
     }
 
-    private void addDebugComments(boolean addComments, VMParser parser, List<String> outputLines) {
+    private void addDebugComments(boolean addComments, VMParser parser, OutputSink output) {
         if (!addComments) {
             return;
         }
 
         switch (parser.commandType()) {
             case C_ARITHMETIC: {
-                outputLines.add("// " + parser.arg1());
+                output.add("// " + parser.arg1());
                 break;
             }
             case C_PUSH: {
-                outputLines.add("// push " + parser.arg1() + " " + parser.arg2());
+                output.add("// push " + parser.arg1() + " " + parser.arg2());
                 break;
             }
             case C_POP: {
-                outputLines.add("// pop " + parser.arg1() + " " + parser.arg2());
+                output.add("// pop " + parser.arg1() + " " + parser.arg2());
                 break;
             }
             case C_LABEL: {
-                outputLines.add("// label " + parser.arg1());
+                output.add("// label " + parser.arg1());
                 break;
             }
             case C_GOTO: {
-                outputLines.add("// goto " + parser.arg1());
+                output.add("// goto " + parser.arg1());
                 break;
             }
             case C_IF: {
-                outputLines.add("// if-goto " + parser.arg1());
+                output.add("// if-goto " + parser.arg1());
                 break;
             }
             case C_FUNCTION: {
-                outputLines.add("// function " + parser.arg1() + " " + parser.arg2());
+                output.add("// function " + parser.arg1() + " " + parser.arg2());
                 break;
             }
             case C_CALL: {
-                outputLines.add("// call " + parser.arg1() + " " + parser.arg2());
+                output.add("// call " + parser.arg1() + " " + parser.arg2());
                 break;
             }
             case C_RETURN: {
-                outputLines.add("// return");
+                output.add("// return");
                 break;
             }
         }
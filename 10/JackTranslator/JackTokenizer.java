@@ -1,73 +1,208 @@
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 class JackTokenizer extends AbstractParser {
 
+    private static final TokenIdentifier[] TOKEN_IDS = TokenIdentifier.values();
+    private static final Keyword[] KEYWORDS = Keyword.values();
+    private static final String SYMBOLS = "&*+()./,-];~}|{>=[<";
+    private static final String[] SYMBOL_STRINGS = new String[128];
+
+    static {
+        for (char symbol : SYMBOLS.toCharArray()) {
+            SYMBOL_STRINGS[symbol] = String.valueOf(symbol);
+        }
+    }
+
     private String currentLine = "";
-    private Token currentToken = null;
-    private Token nextToken = null;
+    // scanned a character at a time, position is the start of the next token
+    private char[] chars = new char[0];
+    private int position = 0;
     private boolean insideBlockComment = false;
 
+    // the whole file is tokenized up front into a compact stream, one kind and one value per token
+    // values are the symbol character or a pool index, keywords are the first pool entries
+    private byte[] tokenKinds = new byte[1024];
+    private int[] tokenValues = new int[1024];
+    private int tokenCount = 0;
+    private int current = -1;
+    private StringPool pool = new StringPool();
+
     private JackTokenizer(String file) {
         super(file);
+        for (Keyword keyword : KEYWORDS) {
+            pool.intern(keyword.getName());
+        }
+        tokenize();
     }
 
     static JackTokenizer get(String file) {
         return new JackTokenizer(file);
     }
 
-    private static List<String> keywords =
-            Arrays.asList("class", "method", "function", "constructor", "int", "boolean", "char", "void", "var",
-                    "static", "field", "let", "do", "if", "else", "while", "return", "true", "false", "null", "this");
-    private static String symbolsRegex = "^([\\&\\*\\+\\(\\)\\.\\/\\,\\-\\]\\;\\~\\}\\|\\{\\>\\=\\[\\<])";
+    // tokenizes a .jack file or every .jack file in a directory, as many times over as asked, to measure throughput
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: JackTokenizer file.jack or directory [repeats] [time]");
+            return;
+        }
+        List<String> files = new ArrayList<>();
+        File file = new File(args[0]);
+        if (file.isDirectory() && file.listFiles() != null) {
+            //noinspection ConstantConditions
+            files.addAll(Arrays.stream(file.listFiles())
+                    .map(File::getName)
+                    .filter(name -> name.endsWith(".jack"))
+                    .sorted()
+                    .map(name -> args[0] + "/" + name)
+                    .collect(Collectors.toList()));
+        } else if (args[0].endsWith(".jack") && file.exists()) {
+            files.add(args[0]);
+        }
+        if (files.isEmpty()) {
+            System.out.println("No valid files to process");
+            return;
+        }
+
+        int repeats = 1;
+        boolean time = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("time")) {
+                time = true;
+            } else {
+                repeats = Integer.parseInt(args[i]);
+            }
+        }
 
-    private static String buildRegEx(List<String> list) {
-        StringBuilder buffer = new StringBuilder();
-        for (String item : list) {
-            buffer.append(item);
-            buffer.append("|");
+        // every repeat reads the files again, the way the translator does on each run
+        long tokens = 0;
+        long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < repeats; i++) {
+                for (String jackFile : files) {
+                    tokens += get(jackFile).tokenCount;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("File: " + args[0] + "\n---Error: " + e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println("Tokens: " + tokens / repeats + (repeats > 1 ? " per repeat" : ""));
+        if (time) {
+            System.out.println("Tokenized in " + elapsed / 1_000_000 + " ms, " +
+                    tokens * 1_000_000_000 / Math.max(elapsed, 1) + " tokens per second");
         }
-        String result = buffer.toString();
-        return "^(" + result.substring(0, result.length() - 1) + ")(?=[^A-Za-z])";
     }
 
     @Override
     protected boolean hasMore() {
-        return nextToken != null || !currentLine.isEmpty() || reader.hasNext();
+        return current + 1 < tokenCount;
     }
 
     @Override
     protected boolean tokenEmpty() {
-        return currentToken == null || currentToken.toString().isEmpty();
+        return current < 0;
     }
 
     @Override
     protected void next() {
-        currentToken = nextToken;
-        nextToken = null;
+        current++;
+    }
 
-        while (currentLine.isEmpty() && reader.hasNext()) {
+    private void tokenize() {
+        while (reader.hasNext()) {
             currentLine = reader.nextLine().trim();
             handleBlockComments();
             currentLine = removeLineComments(currentLine);
+            chars = currentLine.toCharArray();
+            position = 0;
+            skipWhitespace();
+            while (position < chars.length) {
+                scanToken();
+                skipWhitespace();
+            }
+        }
+    }
+
+    private void addToken(TokenIdentifier id, int value) {
+        if (tokenCount == tokenKinds.length) {
+            tokenKinds = Arrays.copyOf(tokenKinds, tokenCount * 2);
+            tokenValues = Arrays.copyOf(tokenValues, tokenCount * 2);
         }
+        tokenKinds[tokenCount] = (byte) id.ordinal();
+        tokenValues[tokenCount] = value;
+        tokenCount++;
+    }
 
-        if (currentLine.isEmpty()) {
-            return;
+    // same whitespace as String.trim
+    private void skipWhitespace() {
+        while (position < chars.length && chars[position] <= ' ') {
+            position++;
         }
+    }
 
-        for (TokenIdentifier id : TokenIdentifier.values()) {
-            Matcher test = id.getPattern().matcher(currentLine);
-            if (test.find()) {
-                nextToken = new Token(test.group(), id);
-                currentLine = currentLine.substring(test.end());
-                currentLine = currentLine.trim();
+    // adds the token at position and moves past it
+    private void scanToken() {
+        char c = chars[position];
+        int start = position;
+        if (isLetter(c) || c == '_') {
+            int letters = 0;
+            while (start + letters < chars.length && isLetter(chars[start + letters])) {
+                letters++;
+            }
+            // a keyword must be followed by something that isn't a letter on the same line
+            int keyword = start + letters < chars.length ? pool.find(chars, start, letters) : -1;
+            if (keyword >= 0 && keyword < KEYWORDS.length) {
+                position += letters;
+                addToken(TokenIdentifier.KEYWORD, keyword);
                 return;
             }
+            while (position < chars.length && isWordChar(chars[position])) {
+                position++;
+            }
+            addToken(TokenIdentifier.IDENTIFIER, pool.intern(chars, start, position - start));
+            return;
+        }
+        if (isDigit(c)) {
+            while (position < chars.length && isDigit(chars[position])) {
+                position++;
+            }
+            addToken(TokenIdentifier.INT_CONST, pool.intern(chars, start, position - start));
+            return;
         }
+        if (c == '"') {
+            // runs to the last quote on the line, the pool holds it without quotes
+            int end = currentLine.lastIndexOf('"');
+            if (end > position) {
+                position = end + 1;
+                addToken(TokenIdentifier.STRING_CONST, pool.intern(chars, start + 1, end - start - 1));
+                return;
+            }
+        }
+        if (SYMBOLS.indexOf(c) >= 0) {
+            position++;
+            addToken(TokenIdentifier.SYMBOL, c);
+            return;
+        }
+
+        throw new IllegalArgumentException("Invalid syntax " + new String(chars, position, chars.length - position));
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
 
-        throw new IllegalArgumentException("Invalid syntax " + currentLine);
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isLetter(c) || isDigit(c) || c == '_';
     }
 
     private void handleBlockComments() {
@@ -104,90 +239,127 @@ class JackTokenizer extends AbstractParser {
     }
 
     TokenIdentifier tokenType() {
-        return currentToken.getId();
+        return TOKEN_IDS[tokenKinds[current]];
     }
 
-    String keyword() {
+    Keyword keywordType() {
         if (tokenType() != TokenIdentifier.KEYWORD) {
             throw new IllegalArgumentException("Token is not keyword");
         }
-        return currentToken.getMatched();
+        return KEYWORDS[tokenValues[current]];
     }
 
-    String symbol() {
+    char symbolChar() {
         if  (tokenType() != TokenIdentifier.SYMBOL) {
             throw new IllegalArgumentException("Token is not symbol");
         }
-        return currentToken.getMatched();
+        return (char) tokenValues[current];
+    }
+
+    boolean isKeyword(Keyword keyword) {
+        return tokenType() == TokenIdentifier.KEYWORD && tokenValues[current] == keyword.ordinal();
+    }
+
+    boolean isSymbol(char symbol) {
+        return tokenType() == TokenIdentifier.SYMBOL && tokenValues[current] == symbol;
+    }
+
+    String keyword() {
+        return keywordType().getName();
+    }
+
+    String symbol() {
+        return SYMBOL_STRINGS[symbolChar()];
     }
 
     String identifier() {
         if  (tokenType() != TokenIdentifier.IDENTIFIER) {
             throw new IllegalArgumentException("Token is not identifier");
         }
-        return currentToken.getMatched();
+        return pool.get(tokenValues[current]);
     }
 
     String intVal() {
         if  (tokenType() != TokenIdentifier.INT_CONST) {
             throw new IllegalArgumentException("Token is not integer constant");
         }
-        return currentToken.getMatched();
+        return pool.get(tokenValues[current]);
     }
 
     String stringVal() {
         if  (tokenType() != TokenIdentifier.STRING_CONST) {
             throw new IllegalArgumentException("Token is not string constant");
         }
-        String quotedString = currentToken.getMatched();
-        return quotedString.substring(1, quotedString.length() -1);
+        return pool.get(tokenValues[current]);
+    }
+
+    // the symbol after the current token, 0 if the next token isn't a symbol
+    char peekSymbol() {
+        int next = current + 1;
+        if (next >= tokenCount || TOKEN_IDS[tokenKinds[next]] != TokenIdentifier.SYMBOL) {
+            return 0;
+        }
+        return (char) tokenValues[next];
     }
 
     protected String peekToken() {
-        return nextToken.getMatched();
+        int next = current + 1;
+        switch (TOKEN_IDS[tokenKinds[next]]) {
+            case KEYWORD: return KEYWORDS[tokenValues[next]].getName();
+            case SYMBOL: return SYMBOL_STRINGS[tokenValues[next]];
+            default: return pool.get(tokenValues[next]);
+        }
     }
 
     protected String getXml() {
-        return currentToken.getId().getXmlName();
+        return tokenType().getXmlName();
     }
 
-    private class Token {
-
-        private String matched;
-        private TokenIdentifier id;
-
-        public TokenIdentifier getId() {
-            return id;
+    enum Keyword {
+        CLASS("class"),
+        METHOD("method"),
+        FUNCTION("function"),
+        CONSTRUCTOR("constructor"),
+        INT("int"),
+        BOOLEAN("boolean"),
+        CHAR("char"),
+        VOID("void"),
+        VAR("var"),
+        STATIC("static"),
+        FIELD("field"),
+        LET("let"),
+        DO("do"),
+        IF("if"),
+        ELSE("else"),
+        WHILE("while"),
+        RETURN("return"),
+        TRUE("true"),
+        FALSE("false"),
+        NULL("null"),
+        THIS("this");
+
+        private String name;
+
+        Keyword(String name) {
+            this.name = name;
         }
 
-        private Token(String matched, TokenIdentifier id )
-        {
-            this.matched = matched;
-            this.id = id;
-        }
-
-        private String getMatched() {
-            return matched;
+        String getName() {
+            return name;
         }
     }
 
     enum TokenIdentifier {
-        KEYWORD("keyword", buildRegEx(keywords)),
-        IDENTIFIER("identifier", "^([a-zA-Z_][\\w]*)"),
-        INT_CONST("integerConstant", "^(\\d+)"),
-        STRING_CONST("stringConstant", "^(\".*\")"),
-        SYMBOL("symbol", symbolsRegex);
+        KEYWORD("keyword"),
+        IDENTIFIER("identifier"),
+        INT_CONST("integerConstant"),
+        STRING_CONST("stringConstant"),
+        SYMBOL("symbol");
 
-        private Pattern pattern;
         private String xmlName;
 
-        TokenIdentifier(String xmlName, String regex) {
+        TokenIdentifier(String xmlName) {
             this.xmlName = xmlName;
-            pattern = Pattern.compile(regex);
-        }
-
-        Pattern getPattern() {
-            return pattern;
         }
 
         String getXmlName() {
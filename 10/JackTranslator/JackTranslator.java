@@ -36,12 +36,12 @@ class JackTranslator extends AbstractTranslator {
     }
 
     @Override
-    protected List<String> translate(String path, boolean xmlDebugMode) {
+    protected void translate(String path, boolean xmlDebugMode, OutputSink output) {
         JackTokenizer tokenizer = JackTokenizer.get(path);
         CompilationEngine compiler = xmlDebugMode
                 ? XmlCompilationEngine.get(tokenizer)
                 : CompilationEngine.get(tokenizer);
-        return compiler.compile();
+        compiler.compile(output);
     }
 
     @Override
@@ -49,6 +49,19 @@ class JackTranslator extends AbstractTranslator {
         return false;
     }
 
+    @Override
+    protected int getVersion() {
+        // covers the compilation engine in 11 as well, 2 folds constant expressions, 3 keeps x / 1,
+        // 4 folds every gt and lt
+        return 4;
+    }
+
+    @Override
+    protected boolean canTranslateInParallel() {
+        // every file has its own tokenizer, engine and symbol table
+        return true;
+    }
+
     @Override
     protected void preFileProcessing(String filePath) {
 
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+// interns names straight from the source characters, a repeated name finds its String without allocating
+class StringPool {
+
+    private String[] strings = new String[64];
+    private int size = 0;
+    // open addressing over string indexes + 1, 0 is an empty slot
+    private int[] slots = new int[128];
+
+    int size() {
+        return size;
+    }
+
+    String get(int index) {
+        return strings[index];
+    }
+
+    int intern(String value) {
+        char[] chars = value.toCharArray();
+        return intern(chars, 0, chars.length);
+    }
+
+    // returns the index of the string, adding it if it isn't in the pool yet
+    int intern(char[] chars, int start, int length) {
+        int index = find(chars, start, length);
+        if (index >= 0) {
+            return index;
+        }
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = new String(chars, start, length);
+        if ((size + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        insert(size);
+        return size++;
+    }
+
+    // returns the index of the string or -1
+    int find(char[] chars, int start, int length) {
+        int mask = slots.length - 1;
+        for (int slot = hash(chars, start, length) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (matches(strings[slots[slot] - 1], chars, start, length)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = strings[index].hashCode() & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    // same as String.hashCode so stored strings can be rehashed directly
+    private static int hash(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    private static boolean matches(String value, char[] chars, int start, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+// lowers a class's nodes to VM commands
+class CodeGenerator {
+
+    private final JackIR ir;
+    private final VMWriter writer = new VMWriter();
+
+    private int whileCount = 0;
+    private int ifCount = 0;
+
+    private CodeGenerator(JackIR ir) {
+        this.ir = ir;
+    }
+
+    static VMWriter generate(JackIR ir) {
+        CodeGenerator generator = new CodeGenerator(ir);
+        for (int subroutine = ir.firstSubroutine(); subroutine != JackIR.NONE; subroutine = ir.next(subroutine)) {
+            generator.writeSubroutine(subroutine);
+        }
+        return generator.writer;
+    }
+
+    private void writeSubroutine(int subroutine) {
+        writer.writeFunction(ir.name(subroutine), ir.value(subroutine));
+
+        JackTokenizer.Keyword keyword = ir.keyword(subroutine);
+        if (keyword == JackTokenizer.Keyword.CONSTRUCTOR) {
+            writer.writePush(VMWriter.Segment.CONSTANT, ir.getFieldCount());
+            writer.writeCall("Memory.alloc", 1);
+            writer.writePop(VMWriter.Segment.POINTER, 0);
+        }
+        else if (keyword == JackTokenizer.Keyword.METHOD) {
+            writer.writePush(VMWriter.Segment.ARGUMENT, 0);
+            writer.writePop(VMWriter.Segment.POINTER, 0);
+        }
+
+        writeStatements(ir.first(subroutine));
+    }
+
+    private void writeStatements(int statement) {
+        for (; statement != JackIR.NONE; statement = ir.next(statement)) {
+            switch (ir.node(statement)) {
+                case LET: {
+                    writeExpression(ir.first(statement));
+                    JackSymbolTable.SymbolEntry symbol = ir.symbol(statement);
+                    writer.writePop(symbol.getKind().getSegment(), symbol.getIndex());
+                    break;
+                }
+                case LET_ARRAY:
+                    writeExpression(ir.first(statement));
+                    writeExpression(ir.second(statement));
+                    writer.writeArrayAccess(false);
+                    break;
+                case IF:
+                    writeIf(statement);
+                    break;
+                case WHILE:
+                    writeWhile(statement);
+                    break;
+                case DO:
+                    writeExpression(ir.first(statement));
+                    // ignore output
+                    writer.writePop(VMWriter.Segment.TEMP, 0);
+                    break;
+                case RETURN:
+                    if (ir.first(statement) == JackIR.NONE) {
+                        // void statement
+                        writer.writePush(VMWriter.Segment.CONSTANT, 0);
+                    } else {
+                        writeExpression(ir.first(statement));
+                    }
+                    writer.writeReturn();
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid statement " + ir.node(statement));
+            }
+        }
+    }
+
+    private void writeIf(int statement) {
+        int count = ifCount++;
+        writeCondition(ir.first(statement), "IF_END_", count);
+        writeStatements(ir.second(statement));
+
+        if (ir.value(statement) != JackIR.NONE) {
+            writer.writeGoTo("ELSE_END_", count);
+            writer.writeLabel("IF_END_", count);
+            writeStatements(ir.value(statement));
+            writer.writeLabel("ELSE_END_", count);
+        }
+        else {
+            writer.writeLabel("IF_END_", count);
+        }
+    }
+
+    private void writeWhile(int statement) {
+        int count = whileCount++;
+        writer.writeLabel("WHILE_START_", count);
+
+        writeCondition(ir.first(statement), "WHILE_END_", count);
+        writeStatements(ir.second(statement));
+
+        writer.writeGoTo("WHILE_START_", count);
+        writer.writeLabel("WHILE_END_", count);
+    }
+
+    // jumps to endLabel when the condition is false
+    private void writeCondition(int condition, String endLabel, int count) {
+        if (ir.node(condition) == JackIR.Node.CONSTANT) {
+            writer.writeConstant(~ir.value(condition));
+        } else {
+            writeExpression(condition);
+            writer.writeUnaryOp('~');
+        }
+        writer.writeIf(endLabel, count);
+    }
+
+    private void writeExpression(int node) {
+        switch (ir.node(node)) {
+            case CONSTANT:
+                writer.writeConstant(ir.value(node));
+                break;
+            case STRING: {
+                String value = ir.name(node);
+                writer.writePush(VMWriter.Segment.CONSTANT, value.length());
+                writer.writeCall("String.new", 1);
+                for (int i = 0; i < value.length(); i++) {
+                    writer.writePush(VMWriter.Segment.CONSTANT, value.charAt(i));
+                    writer.writeCall("String.appendChar", 2);
+                }
+                break;
+            }
+            case THIS:
+                writer.writePush(VMWriter.Segment.POINTER, 0);
+                break;
+            case VARIABLE: {
+                JackSymbolTable.SymbolEntry symbol = ir.symbol(node);
+                writer.writePush(symbol.getKind().getSegment(), symbol.getIndex());
+                break;
+            }
+            case ARRAY:
+                writeExpression(ir.first(node));
+                writer.writeArrayAccess(true);
+                break;
+            case UNARY:
+                writeExpression(ir.first(node));
+                writer.writeUnaryOp((char) ir.value(node));
+                break;
+            case BINARY:
+                writeExpression(ir.first(node));
+                writeExpression(ir.second(node));
+                writer.writeArithmetic((char) ir.value(node));
+                break;
+            case DOUBLE:
+                writeDoubling(node);
+                break;
+            case CALL:
+                for (int argument = ir.first(node); argument != JackIR.NONE; argument = ir.next(argument)) {
+                    writeExpression(argument);
+                }
+                writer.writeCall(ir.name(node), ir.value(node));
+                break;
+            default:
+                throw new IllegalArgumentException("invalid expression " + ir.node(node));
+        }
+    }
+
+    // adds the value to itself, there's no dup so it goes through temp 1 unless it's a single push
+    private void writeDoubling(int node) {
+        int operand = ir.first(node);
+        boolean push = ir.node(operand) == JackIR.Node.VARIABLE || ir.node(operand) == JackIR.Node.THIS;
+        writeExpression(operand);
+        for (int i = 0; i < ir.value(node); i++) {
+            if (i == 0 && push) {
+                writeExpression(operand);
+            } else {
+                writer.writePop(VMWriter.Segment.TEMP, 1);
+                writer.writePush(VMWriter.Segment.TEMP, 1);
+                writer.writePush(VMWriter.Segment.TEMP, 1);
+            }
+            writer.writeArithmetic('+');
+        }
+    }
+}
@@ -1,16 +1,22 @@
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 
 class CompilationEngine {
 
+    private static final EnumSet<JackTokenizer.Keyword> TYPES =
+            EnumSet.of(JackTokenizer.Keyword.INT, JackTokenizer.Keyword.CHAR, JackTokenizer.Keyword.BOOLEAN);
+    private static final EnumSet<JackTokenizer.Keyword> STATEMENTS = EnumSet.of(JackTokenizer.Keyword.LET,
+            JackTokenizer.Keyword.IF, JackTokenizer.Keyword.WHILE, JackTokenizer.Keyword.DO, JackTokenizer.Keyword.RETURN);
+    private static final EnumSet<JackTokenizer.Keyword> KEYWORD_CONSTANTS = EnumSet.of(JackTokenizer.Keyword.TRUE,
+            JackTokenizer.Keyword.FALSE, JackTokenizer.Keyword.NULL, JackTokenizer.Keyword.THIS);
+    private static final String OPS = "+-*/&|<>=";
+
     private JackTokenizer tokenizer;
     private JackSymbolTable symbolTable = new JackSymbolTable();
+    // the compile methods only parse, building this and returning the nodes they made
+    private JackIR ir;
     private String currentClass;
 
-    private int whileCount = 0;
-    private int ifCount = 0;
-
     CompilationEngine(JackTokenizer tokenizer) {
         this.tokenizer = tokenizer;
     }
@@ -31,11 +37,10 @@ class CompilationEngine {
         return start(tokenizer.getXml()) + " " + inner + " " + end(tokenizer.getXml());
     }
 
-    private void validateKeyword(String keyword) {
+    private void validateKeyword(JackTokenizer.Keyword keyword) {
         tokenizer.advance();
-        if (tokenizer.tokenType() != JackTokenizer.TokenIdentifier.KEYWORD ||
-                !tokenizer.keyword().equals(keyword)) {
-            throw new IllegalArgumentException("Syntax Error: Expected keyword " + keyword + " but found: " + tokenizer.keyword());
+        if (!tokenizer.isKeyword(keyword)) {
+            throw new IllegalArgumentException("Syntax Error: Expected keyword " + keyword.getName() + " but found: " + tokenizer.keyword());
         }
     }
 
@@ -46,21 +51,20 @@ class CompilationEngine {
         }
     }
 
-    private void validateSymbols(List<String> symbols) {
+    private void validateSymbols(String symbols) {
         tokenizer.advance();
         if (tokenizer.tokenType() != JackTokenizer.TokenIdentifier.SYMBOL ||
-                !symbols.contains(tokenizer.symbol())) {
-            throw new IllegalArgumentException("Syntax Error: Expected one of symbols " + symbols.toString() + " but found " + tokenizer.symbol());
+                symbols.indexOf(tokenizer.symbolChar()) < 0) {
+            throw new IllegalArgumentException("Syntax Error: Expected one of symbols " + symbols + " but found " + tokenizer.symbol());
         }    }
 
-    private void validateSymbol(String symbol) {
+    private void validateSymbol(char symbol) {
         tokenizer.advance();
         validateSymbolNoAdvance(symbol);
     }
 
-    private void validateSymbolNoAdvance(String symbol) {
-        if (tokenizer.tokenType() != JackTokenizer.TokenIdentifier.SYMBOL ||
-                !tokenizer.symbol().equals(symbol)) {
+    private void validateSymbolNoAdvance(char symbol) {
+        if (!tokenizer.isSymbol(symbol)) {
             throw new IllegalArgumentException("Syntax Error: Expected symbol " + symbol + " but found " + tokenizer.symbol());
         }
     }
@@ -81,13 +85,12 @@ class CompilationEngine {
 
     private boolean isType() {
         return (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                Arrays.asList("int", "char", "boolean").contains(tokenizer.keyword())) ||
+                TYPES.contains(tokenizer.keywordType())) ||
                 tokenizer.tokenType() == JackTokenizer.TokenIdentifier.IDENTIFIER;
     }
 
     private boolean isVoid() {
-        return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                tokenizer.keyword().equals("void");
+        return tokenizer.isKeyword(JackTokenizer.Keyword.VOID);
     }
 
     private void validateStatement() {
@@ -99,7 +102,7 @@ class CompilationEngine {
 
     private boolean isStatement() {
         return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                Arrays.asList("let", "if", "while", "do", "return").contains(tokenizer.keyword());
+                STATEMENTS.contains(tokenizer.keywordType());
     }
 
     private void validateTerm() {
@@ -117,28 +120,25 @@ class CompilationEngine {
     }
 
     private boolean isComma() {
-        return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.SYMBOL &&
-                tokenizer.symbol().equals(",");
+        return tokenizer.isSymbol(',');
     }
 
     private boolean isKeywordConstant() {
         return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                Arrays.asList("true", "false", "null", "this").contains(tokenizer.keyword());
+                KEYWORD_CONSTANTS.contains(tokenizer.keywordType());
     }
 
     private boolean isUnaryOp() {
-        return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.SYMBOL &&
-                Arrays.asList("-", "~").contains(tokenizer.symbol());
+        return tokenizer.isSymbol('-') || tokenizer.isSymbol('~');
     }
 
     private boolean isOp() {
         return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.SYMBOL &&
-                Arrays.asList("+", "-", "*", "/", "&", "|", "<", ">", "=").contains(tokenizer.symbol());
+                OPS.indexOf(tokenizer.symbolChar()) >= 0;
     }
 
     private boolean isOpenParen() {
-        return tokenizer.tokenType() == JackTokenizer.TokenIdentifier.SYMBOL &&
-                tokenizer.symbol().equals("(");
+        return tokenizer.isSymbol('(');
     }
 
     private void wrapOutput(List<String> output, String tag) {
@@ -150,26 +150,29 @@ class CompilationEngine {
         return wrap(tokenizer.keyword());
     }
 
-    private String cIdentifier(boolean push) {
-        return cIdentifier(tokenizer.identifier(), push);
+    private JackSymbolTable.SymbolEntry cIdentifier() {
+        return cIdentifier(tokenizer.identifier());
     }
 
-    private String cIdentifier(String id, boolean push) {
-        return push
-                ? VMWriter.writePush(this.symbolTable.kindOf(id).getName(), this.symbolTable.indexOf(id))
-                : VMWriter.writePop(this.symbolTable.kindOf(id).getName(), this.symbolTable.indexOf(id));
+    private JackSymbolTable.SymbolEntry cIdentifier(String id) {
+        JackSymbolTable.SymbolEntry entry = this.symbolTable.lookup(id);
+        if (entry == null) {
+            throw new IllegalArgumentException("Undefined identifier " + id);
+        }
+        return entry;
     }
 
     private String describeIdentifier(boolean define) {
         String id = tokenizer.identifier();
-        if (this.symbolTable.typeOf(id) == null) {
+        JackSymbolTable.SymbolEntry entry = this.symbolTable.lookup(id);
+        if (entry == null) {
             return "(not in table) " + tokenizer.identifier();
         }
         String state = define ? "DEFINING: " : "ACCESSING: ";
         return  state + id +
-                ", t: " + this.symbolTable.typeOf(id) +
-                ", k: " + this.symbolTable.kindOf(id) +
-                ", i: " + this.symbolTable.indexOf(id);
+                ", t: " + entry.getType() +
+                ", k: " + entry.getKind() +
+                ", i: " + entry.getIndex();
     }
 
     private String cSymbol() {
@@ -192,27 +195,31 @@ class CompilationEngine {
         }
     }
 
-    private List<String> cStringVal() {
-        List<String> output = new ArrayList<>();
-        int length = tokenizer.stringVal().length();
-        output.add(VMWriter.writePush("constant", length));
-        output.add(VMWriter.writeCall("String.new", 1));
-        tokenizer.stringVal().chars().forEach(charInt -> {
-            output.add(VMWriter.writePush("constant", charInt));
-            output.add(VMWriter.writeCall("String.appendChar", 2));
-        });
-        return output;
+    private int cStringVal() {
+        return ir.string(tokenizer.stringVal());
+    }
+
+    private int cIntVal() {
+        return ir.constant(Integer.parseInt(tokenizer.intVal()));
     }
 
-    private String cIntVal() {
-        return VMWriter.writePush("constant", Integer.parseInt(tokenizer.intVal()));
+    private int cKeywordConstant() {
+        switch (tokenizer.keywordType()) {
+            case TRUE:
+                return ir.constant(-1);
+            case FALSE:
+            case NULL:
+                return ir.constant(0);
+            default:
+                return ir.self();
+        }
     }
 
     private JackSymbolTable.Kind getKind() {
-        switch (tokenizer.keyword()) {
-            case "static":
+        switch (tokenizer.keywordType()) {
+            case STATIC:
                 return JackSymbolTable.Kind.STATIC;
-            case "field":
+            case FIELD:
                 return JackSymbolTable.Kind.FIELD;
             default:
                 throw new IllegalArgumentException("invalid kind: " + tokenizer.keyword());
@@ -228,37 +235,41 @@ class CompilationEngine {
         }
     }
 
-    List<String> compile() {
-            validateKeyword("class");
-            return compileClass();
+    // parses the whole class, folds it, then lowers it
+    void compile(OutputSink output) {
+        validateKeyword(JackTokenizer.Keyword.CLASS);
+        compileClass();
+        ConstantFolder.fold(ir);
+        VMWriter writer = CodeGenerator.generate(ir);
+        // nothing needs the nodes while the text is formatted
+        this.ir = null;
+        writer.writeTo(output);
     }
 
-    private List<String> compileClass() {
-        List<String> output = new ArrayList<>();
-
+    private void compileClass() {
         validateIdentifier();
         this.currentClass = tokenizer.identifier();
+        this.ir = new JackIR(this.currentClass);
 
-        validateSymbol("{");
+        validateSymbol('{');
 
         tokenizer.advance();
-        while (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                Arrays.asList("static", "field").contains(tokenizer.keyword())) {
+        while (tokenizer.isKeyword(JackTokenizer.Keyword.STATIC) || tokenizer.isKeyword(JackTokenizer.Keyword.FIELD)) {
             compileClassVarDec();
 
             tokenizer.advance();
         }
+        ir.setFieldCount(symbolTable.varCount(JackSymbolTable.Kind.FIELD));
 
-        while (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                Arrays.asList("constructor", "function", "method").contains(tokenizer.keyword())) {
-            output.addAll(compileSubroutineDec());
+        while (tokenizer.isKeyword(JackTokenizer.Keyword.CONSTRUCTOR) ||
+                tokenizer.isKeyword(JackTokenizer.Keyword.FUNCTION) ||
+                tokenizer.isKeyword(JackTokenizer.Keyword.METHOD)) {
+            compileSubroutineDec();
 
             tokenizer.advance();
         }
 
-        validateSymbolNoAdvance("}");
-
-        return output;
+        validateSymbolNoAdvance('}');
     }
 
     private void compileClassVarDec() {
@@ -278,35 +289,32 @@ class CompilationEngine {
             tokenizer.advance();
         }
 
-        validateSymbolNoAdvance(";");
+        validateSymbolNoAdvance(';');
     }
 
-    private List<String> compileSubroutineDec() {
-        List<String> output = new ArrayList<>();
+    private void compileSubroutineDec() {
         this.symbolTable.startSubroutine();
 
-        String keyword = tokenizer.keyword();
+        JackTokenizer.Keyword keyword = tokenizer.keywordType();
 
         validateTypeAndVoid();
 
         validateIdentifier();
         String name = tokenizer.identifier();
-        validateSymbol("(");
+        validateSymbol('(');
 
         // if method, first arg is always this
-        if (keyword.equals("method")) {
+        if (keyword == JackTokenizer.Keyword.METHOD) {
             this.symbolTable.define("this", this.currentClass, JackSymbolTable.Kind.ARG);
         }
 
         tokenizer.advance();
         compileParameterList();
 
-        validateSymbolNoAdvance(")");
-
-        validateSymbol("{");
-        output.addAll(compileSubroutineBody(name, keyword));
+        validateSymbolNoAdvance(')');
 
-        return output;
+        validateSymbol('{');
+        compileSubroutineBody(name, keyword);
     }
 
     private void compileParameterList() {
@@ -330,38 +338,23 @@ class CompilationEngine {
         }
     }
 
-    private List<String> compileSubroutineBody(String name, String keyword) {
-        List<String> output = new ArrayList<>();
+    private void compileSubroutineBody(String name, JackTokenizer.Keyword keyword) {
         int localVarCount = 0;
 
         tokenizer.advance();
-        while (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                tokenizer.keyword().equals("var")) {
+        while (tokenizer.isKeyword(JackTokenizer.Keyword.VAR)) {
             localVarCount += compileVarDec();
 
             tokenizer.advance();
         }
 
-        output.add(VMWriter.writeFunction(this.currentClass + "." + name, localVarCount));
-
-        if (keyword.equals("constructor")) {
-            int classFields = symbolTable.varCount(JackSymbolTable.Kind.FIELD);
-            output.add(VMWriter.writePush("constant", classFields));
-            output.add(VMWriter.writeCall("Memory.alloc", 1));
-            output.add(VMWriter.writePop("pointer", 0));
-        }
-        else if (keyword.equals("method")) {
-            output.add(VMWriter.writePush("argument", 0));
-            output.add(VMWriter.writePop("pointer", 0));
-        }
-
+        int statements = JackIR.NONE;
         if (isStatement()) {
-            output.addAll(compileStatements());
+            statements = compileStatements();
         }
 
-        validateSymbolNoAdvance("}");
-
-        return output;
+        validateSymbolNoAdvance('}');
+        ir.addSubroutine(this.currentClass + "." + name, keyword, localVarCount, statements);
     }
 
     private int compileVarDec() {
@@ -384,337 +377,272 @@ class CompilationEngine {
             tokenizer.advance();
         }
 
-        validateSymbolNoAdvance(";");
+        validateSymbolNoAdvance(';');
         return localVarCount;
     }
 
-    private List<String> compileStatements() {
-        List<String> output = new ArrayList<>();
-
+    // returns the first statement, the rest are linked after it
+    private int compileStatements() {
+        int first = JackIR.NONE;
+        int last = JackIR.NONE;
         while (isStatement()) {
-            switch (tokenizer.keyword()) {
-                case "let": {
-                    output.addAll(compileLetStatement());
+            int statement;
+            switch (tokenizer.keywordType()) {
+                case LET: {
+                    statement = compileLetStatement();
                     tokenizer.advance();
                     break;
                 }
-                case "if": {
-                    output.addAll(compileIfStatement());
+                case IF: {
+                    statement = compileIfStatement();
                     break;
                 }
-                case "while": {
-                    output.addAll(compileWhileStatement());
+                case WHILE: {
+                    statement = compileWhileStatement();
                     tokenizer.advance();
                     break;
                 }
-                case "do": {
-                    output.addAll(compileDoStatement());
+                case DO: {
+                    statement = compileDoStatement();
                     tokenizer.advance();
                     break;
                 }
-                case "return": {
-                    output.addAll(compileReturnStatement());
+                default: {
+                    statement = compileReturnStatement();
                     tokenizer.advance();
                     break;
                 }
             }
+            last = ir.link(last, statement);
+            if (first == JackIR.NONE) {
+                first = statement;
+            }
         }
-
-        return output;
+        return first;
     }
 
-    private List<String> compileLetStatement() {
-        List<String> output = new ArrayList<>();
-        boolean arrayAccess = false;
+    private int compileLetStatement() {
+        int address = JackIR.NONE;
 
         validateIdentifier();
         String identifer = tokenizer.identifier();
 
         tokenizer.advance();
-        if (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.SYMBOL &&
-                tokenizer.symbol().equals("[")) {
-            arrayAccess = true;
+        if (tokenizer.isSymbol('[')) {
             validateTerm();
-            output.addAll(compileExpression());
+            int index = compileExpression();
 
-            validateSymbolNoAdvance("]");
-            output.add(cIdentifier(identifer, true));
-            output.add(VMWriter.writeArithmetic("+"));
+            validateSymbolNoAdvance(']');
+            // the index is evaluated before the base here
+            address = ir.binary('+', index, ir.variable(cIdentifier(identifer)));
 
             tokenizer.advance();
         }
 
-        validateSymbolNoAdvance("=");
+        validateSymbolNoAdvance('=');
 
         validateTerm();
-        output.addAll(compileExpression());
+        int value = compileExpression();
 
-        validateSymbolNoAdvance(";");
-        if (arrayAccess) {
-            output.addAll(VMWriter.writeArrayAccess(false));
+        validateSymbolNoAdvance(';');
+        if (address != JackIR.NONE) {
+            return ir.letArray(address, value);
         }
         else {
-            output.add(cIdentifier(identifer, false));
+            return ir.let(cIdentifier(identifer), value);
         }
-        return output;
     }
 
-    private List<String> compileExpression() {
-        List<String> output = new ArrayList<>();
-        output.addAll(compileTerm());
+    private int compileExpression() {
+        // everything to the left of an op is its left operand, jack has no precedence
+        int expression = compileTerm();
 
         tokenizer.advance();
         while (isOp()) {
-            String op = tokenizer.symbol();
+            char op = tokenizer.symbolChar();
 
             validateTerm();
-            output.addAll(compileTerm());
-
-            output.add(VMWriter.writeArithmetic(op));
+            expression = ir.binary(op, expression, compileTerm());
 
             tokenizer.advance();
         }
-
-        return output;
+        return expression;
     }
 
-    private List<String> compileTerm() {
-        List<String> output = new ArrayList<>();
-
+    private int compileTerm() {
         if (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.INT_CONST) {
-            output.add(cIntVal());
+            return cIntVal();
         }
         else if (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.STRING_CONST) {
-            output.addAll(cStringVal());
+            return cStringVal();
         }
         else if (isKeywordConstant()) {
-            output.addAll(VMWriter.writeKeywordConstant(tokenizer.keyword()));
+            return cKeywordConstant();
         }
         else if (isOpenParen()) {
             validateTerm();
-            output.addAll(compileExpression());
+            int expression = compileExpression();
 
-            validateSymbolNoAdvance(")");
+            validateSymbolNoAdvance(')');
+            return expression;
         }
         else if (isUnaryOp()) {
-            String op = tokenizer.symbol();
+            char op = tokenizer.symbolChar();
             validateTerm();
-            output.addAll(compileTerm());
-            output.add(VMWriter.writeUnaryOp(op));
+            return ir.unary(op, compileTerm());
         }
-        else if (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.IDENTIFIER) {
-            output.addAll(compileTermIdentifer());
+        else {
+            return compileTermIdentifer();
         }
-
-        return output;
     }
 
-    private List<String> compileTermIdentifer() {
-        List<String> output = new ArrayList<>();
-        String nextToken = tokenizer.peekToken();
+    private int compileTermIdentifer() {
+        char nextSymbol = tokenizer.peekSymbol();
 
-        if (nextToken.equals("[")) {
-            output.add(cIdentifier(true));
+        if (nextSymbol == '[') {
+            int base = ir.variable(cIdentifier());
 
-            validateSymbol("[");
+            validateSymbol('[');
             validateTerm();
-            output.addAll(compileExpression());
-            validateSymbolNoAdvance("]");
+            int index = compileExpression();
+            validateSymbolNoAdvance(']');
 
-            output.add(VMWriter.writeArithmetic("+"));
-            output.addAll(VMWriter.writeArrayAccess(true));
+            return ir.array(ir.binary('+', base, index));
         }
-        else if (nextToken.equals("(") || nextToken.equals(".")) {
-            output.addAll(compileSubroutineCall());
+        else if (nextSymbol == '(' || nextSymbol == '.') {
+            return compileSubroutineCall();
         }
         else {
-            output.add(cIdentifier(true));
+            return ir.variable(cIdentifier());
         }
-
-        return output;
     }
 
-    private List<String> compileIfStatement() {
-        List<String> output = new ArrayList<>();
-
-        int count = ifCount++;
-        output.addAll(compileConditionBlock("IF", count));
+    private int compileIfStatement() {
+        int condition = compileCondition();
+        int statements = compileBlock();
 
         tokenizer.advance();
-        if (tokenizer.tokenType() == JackTokenizer.TokenIdentifier.KEYWORD &&
-                tokenizer.keyword().equals("else")) {
-
-            output.add(VMWriter.writeGoTo("ELSE_END_" + count));
-            output.add(VMWriter.writeLabel("IF_END_" + count));
-
-
-            validateSymbol("{");
+        if (tokenizer.isKeyword(JackTokenizer.Keyword.ELSE)) {
+            validateSymbol('{');
             validateStatement();
-            output.addAll(compileStatements());
+            int elseStatements = compileStatements();
 
-            validateSymbolNoAdvance("}");
+            validateSymbolNoAdvance('}');
 
             tokenizer.advance();
-            output.add(VMWriter.writeLabel("ELSE_END_" + count));
+            return ir.ifStatement(condition, statements, elseStatements);
         }
         else {
-            output.add(VMWriter.writeLabel("IF_END_" + count));
+            return ir.ifStatement(condition, statements, JackIR.NONE);
         }
-
-        return output;
     }
 
-    private List<String> compileWhileStatement() {
-        List<String> output = new ArrayList<>();
-
-        int count = whileCount++;
-        output.add(VMWriter.writeLabel("WHILE_START_" + count));
-
-        output.addAll(compileConditionBlock("WHILE", count));
-
-        output.add(VMWriter.writeGoTo("WHILE_START_" + count));
-        output.add(VMWriter.writeLabel("WHILE_END_" + count));
-        return output;
+    private int compileWhileStatement() {
+        int condition = compileCondition();
+        return ir.whileStatement(condition, compileBlock());
     }
 
-    private List<String> compileConditionBlock(String conditionType, int count) {
-        List<String> output = new ArrayList<>();
-
-        validateSymbol("(");
+    private int compileCondition() {
+        validateSymbol('(');
         validateTerm();
-        output.addAll(compileExpression());
+        int condition = compileExpression();
 
-        validateSymbolNoAdvance(")");
+        validateSymbolNoAdvance(')');
+        return condition;
+    }
 
-        output.add(VMWriter.writeUnaryOp("~"));
-        output.add(VMWriter.writeIf(conditionType + "_END_" + count));
-        validateSymbol("{");
+    private int compileBlock() {
+        validateSymbol('{');
 
         validateStatement();
-        output.addAll(compileStatements());
+        int statements = compileStatements();
 
-        validateSymbolNoAdvance("}");
-
-        return output;
+        validateSymbolNoAdvance('}');
+        return statements;
     }
 
-    private List<String> compileDoStatement() {
-        List<String> output = new ArrayList<>();
-
+    private int compileDoStatement() {
         validateIdentifier();
-        output.addAll(compileSubroutineCall());
+        int call = compileSubroutineCall();
 
-        validateSymbol(";");
-        // ignore output
-        output.add(VMWriter.writePop("temp", 0));
-
-        return output;
+        validateSymbol(';');
+        return ir.doStatement(call);
     }
 
-    private List<String> compileReturnStatement() {
-        List<String> output = new ArrayList<>();
-
+    private int compileReturnStatement() {
+        int value = JackIR.NONE;
         tokenizer.advance();
         if (isTerm()) {
-            output.addAll(compileExpression());
-        }
-        else {
-            // void statement
-            output.add(VMWriter.writePush("constant", 0));
+            value = compileExpression();
         }
 
-        validateSymbolNoAdvance(";");
-        output.add(VMWriter.writeReturn());
-        return output;
+        validateSymbolNoAdvance(';');
+        return ir.returnStatement(value);
     }
 
-    private List<String> compileSubroutineCall() {
-        List<String> output = new ArrayList<>();
-        Tuple<List<String>, Integer> rawOut;
+    private int compileSubroutineCall() {
         String functionName;
 
         String identifier = tokenizer.identifier();
-        String functionType = symbolTable.typeOf(identifier);
-        int argCount;
+        JackSymbolTable.SymbolEntry instance = symbolTable.lookup(identifier);
+        String functionType = instance == null ? null : instance.getType();
+        int arguments;
 
-        validateSymbols(Arrays.asList(".", "("));
-        if (tokenizer.symbol().equals("(")) {
+        validateSymbols(".(");
+        if (tokenizer.isSymbol('(')) {
             // method call on same instance
             functionName = currentClass + "." + identifier;
 
-            output.add(VMWriter.writePush("pointer", 0));
-            rawOut = compileExpressionList();
-            output.addAll(rawOut.getA());
-            argCount = rawOut.getB() + 1;
+            int self = ir.self();
+            ir.link(self, compileExpressionList());
+            arguments = self;
 
-            validateSymbolNoAdvance(")");
+            validateSymbolNoAdvance(')');
         }
         else if (functionType != null) {
             // method call on specified instance
             validateIdentifier();
             functionName = functionType + "." + tokenizer.identifier();
 
-            validateSymbol("(");
+            validateSymbol('(');
 
-            output.add(cIdentifier(identifier, true));
-            rawOut = compileExpressionList();
-            output.addAll(rawOut.getA());
-            argCount = rawOut.getB() + 1;
+            int variable = ir.variable(instance);
+            ir.link(variable, compileExpressionList());
+            arguments = variable;
 
-            validateSymbolNoAdvance(")");
+            validateSymbolNoAdvance(')');
         }
         else {
             // function call
             validateIdentifier();
             functionName = identifier + "." + tokenizer.identifier();
 
-            validateSymbol("(");
+            validateSymbol('(');
 
-            rawOut = compileExpressionList();
-            output.addAll(rawOut.getA());
-            argCount = rawOut.getB();
+            arguments = compileExpressionList();
 
-            validateSymbolNoAdvance(")");
+            validateSymbolNoAdvance(')');
         }
 
-        output.add(VMWriter.writeCall(functionName, argCount));
-        return output;
+        return ir.call(functionName, arguments);
     }
 
-    private Tuple<List<String>, Integer> compileExpressionList() {
-        List<String> output = new ArrayList<>();
+    // returns the first expression compiled, the rest are linked after it
+    private int compileExpressionList() {
         tokenizer.advance();
-        int exprCount = 0;
+        int first = JackIR.NONE;
 
         if (isTerm()) {
-            output.addAll(compileExpression());
-            exprCount++;
+            first = compileExpression();
+            int last = first;
 
             while (isComma()) {
                 validateTerm();
-                output.addAll(compileExpression());
-                exprCount++;
+                last = ir.link(last, compileExpression());
             }
 
         }
 
-        return new Tuple<>(output, exprCount);
-    }
-
-    class Tuple<X, Y> {
-        private final X x;
-        private final Y y;
-        Tuple(X x, Y y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        X getA() {
-            return this.x;
-        }
-
-        Y getB() {
-            return this.y;
-        }
+        return first;
     }
 }
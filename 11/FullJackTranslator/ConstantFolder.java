@@ -0,0 +1,157 @@
+// folds constant expressions and drops identities, rewriting the nodes in place from the leaves up
+class ConstantFolder {
+
+    private final JackIR ir;
+
+    private ConstantFolder(JackIR ir) {
+        this.ir = ir;
+    }
+
+    static void fold(JackIR ir) {
+        ConstantFolder folder = new ConstantFolder(ir);
+        for (int subroutine = ir.firstSubroutine(); subroutine != JackIR.NONE; subroutine = ir.next(subroutine)) {
+            folder.foldStatements(ir.first(subroutine));
+        }
+    }
+
+    private void foldStatements(int statement) {
+        for (; statement != JackIR.NONE; statement = ir.next(statement)) {
+            switch (ir.node(statement)) {
+                case LET:
+                case DO:
+                case RETURN:
+                    foldExpression(ir.first(statement));
+                    break;
+                case LET_ARRAY:
+                    foldExpression(ir.first(statement));
+                    foldExpression(ir.second(statement));
+                    break;
+                case IF:
+                    foldExpression(ir.first(statement));
+                    foldStatements(ir.second(statement));
+                    foldStatements(ir.value(statement));
+                    break;
+                case WHILE:
+                    foldExpression(ir.first(statement));
+                    foldStatements(ir.second(statement));
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid statement " + ir.node(statement));
+            }
+        }
+    }
+
+    private void foldExpression(int node) {
+        if (node == JackIR.NONE) {
+            return;
+        }
+        switch (ir.node(node)) {
+            case ARRAY:
+                foldExpression(ir.first(node));
+                break;
+            case CALL:
+                for (int argument = ir.first(node); argument != JackIR.NONE; argument = ir.next(argument)) {
+                    foldExpression(argument);
+                }
+                break;
+            case UNARY: {
+                int operand = ir.first(node);
+                foldExpression(operand);
+                if (isConstant(operand)) {
+                    int value = ir.value(operand);
+                    setConstant(node, ir.value(node) == '-' ? -value : ~value);
+                }
+                break;
+            }
+            case BINARY:
+                foldExpression(ir.first(node));
+                foldExpression(ir.second(node));
+                foldBinary(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void foldBinary(int node) {
+        char op = (char) ir.value(node);
+        int left = ir.first(node);
+        int right = ir.second(node);
+        if (isConstant(left) && isConstant(right)) {
+            Integer value = fold(op, ir.value(left), ir.value(right));
+            if (value != null) {
+                setConstant(node, value);
+            }
+        }
+        else if (isConstant(right)) {
+            simplify(node, op, ir.value(right), left, false);
+        }
+        else if (isConstant(left)) {
+            simplify(node, op, ir.value(left), right, true);
+        }
+    }
+
+    // null where folding could change what happens at run time
+    private static Integer fold(char op, int x, int y) {
+        switch (op) {
+            case '+': return (int) (short) (x + y);
+            case '-': return (int) (short) (x - y);
+            case '*': return (int) (short) (x * y);
+            // Math.divide works on absolute values, which overflow for -32768
+            case '/': return y == 0 || x == Short.MIN_VALUE || y == Short.MIN_VALUE ? null : x / y;
+            case '&': return x & y;
+            case '|': return x | y;
+            case '=': return x == y ? -1 : 0;
+            // gt and lt are translated to check signs before subtracting, so they never overflow
+            case '>': return x > y ? -1 : 0;
+            case '<': return x < y ? -1 : 0;
+            default: throw new IllegalArgumentException("invalid op " + op);
+        }
+    }
+
+    // one operand is the constant, the other one isn't. x / 1 is left alone, Math.divide gives 0 for -32768 / 1
+    private void simplify(int node, char op, int constant, int operand, boolean constantOnLeft) {
+        if ((op == '*' || op == '&') && constant == 0 || op == '|' && constant == -1) {
+            if (!hasCall(operand)) {
+                setConstant(node, constant);
+            }
+        }
+        else if (op == '+' && constant == 0 || op == '*' && constant == 1
+                || op == '|' && constant == 0 || op == '&' && constant == -1
+                || !constantOnLeft && op == '-' && constant == 0) {
+            ir.replace(node, operand);
+        }
+        else if (op == '*' && constant == -1 || constantOnLeft && op == '-' && constant == 0) {
+            ir.set(node, JackIR.Node.UNARY, '-', operand, JackIR.NONE);
+        }
+        else if (op == '*' && constant > 1 && Integer.bitCount(constant) == 1) {
+            ir.set(node, JackIR.Node.DOUBLE, Integer.numberOfTrailingZeros(constant), operand, JackIR.NONE);
+        }
+    }
+
+    private boolean isConstant(int node) {
+        return ir.node(node) == JackIR.Node.CONSTANT;
+    }
+
+    private void setConstant(int node, int value) {
+        ir.set(node, JackIR.Node.CONSTANT, (short) value, JackIR.NONE, JackIR.NONE);
+    }
+
+    // whether the expression calls anything once it's lowered, strings and multiplication included
+    private boolean hasCall(int node) {
+        switch (ir.node(node)) {
+            case CALL:
+            case STRING:
+                return true;
+            case BINARY:
+                return ir.value(node) == '*' || ir.value(node) == '/'
+                        || hasCall(ir.first(node)) || hasCall(ir.second(node));
+            case ARRAY:
+            case UNARY:
+            case DOUBLE:
+                return hasCall(ir.first(node));
+            default:
+                return false;
+        }
+    }
+}
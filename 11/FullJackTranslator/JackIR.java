@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+// a parsed class as nodes in parallel arrays, a node is just its index. CompilationEngine builds it, passes like
+// ConstantFolder rewrite it in place, and CodeGenerator lowers it to VM commands
+class JackIR {
+
+    enum Node {
+        // value
+        CONSTANT,
+        // name is the string
+        STRING,
+        THIS,
+        // symbol is the variable
+        VARIABLE,
+        // first is the address
+        ARRAY,
+        // value is the op, first the operand
+        UNARY,
+        // value is the op, first and second the operands in the order they're evaluated
+        BINARY,
+        // first doubled value times, multiplication by a power of two
+        DOUBLE,
+        // name is the function, value the argument count, first the first argument
+        CALL,
+        // symbol is the variable, first the value
+        LET,
+        // first is the address, second the value
+        LET_ARRAY,
+        // first is the condition, second the statements, value the else statements or NONE
+        IF,
+        // first is the condition, second the statements
+        WHILE,
+        // first is the call
+        DO,
+        // first is the value or NONE
+        RETURN,
+        // name is the full name, value the local count, first the statements
+        SUBROUTINE
+    }
+
+    static final int NONE = -1;
+
+    private static final Node[] NODES = Node.values();
+
+    private final String className;
+    private int fieldCount;
+    private int firstSubroutine = NONE;
+    private int lastSubroutine = NONE;
+
+    private byte[] nodes = new byte[256];
+    private int[] values = new int[256];
+    private int[] firsts = new int[256];
+    private int[] seconds = new int[256];
+    // the following statement, argument or subroutine
+    private int[] nexts = new int[256];
+    private int size = 0;
+    // symbol entries and names, only the nodes that have one point into it, through second
+    private Object[] refs = new Object[64];
+    private int refCount = 0;
+
+    JackIR(String className) {
+        this.className = className;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    void setFieldCount(int fieldCount) {
+        this.fieldCount = fieldCount;
+    }
+
+    int firstSubroutine() {
+        return firstSubroutine;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int constant(int value) {
+        return add(Node.CONSTANT, (short) value, NONE, NONE);
+    }
+
+    int string(String value) {
+        return add(Node.STRING, 0, NONE, ref(value));
+    }
+
+    int self() {
+        return add(Node.THIS, 0, NONE, NONE);
+    }
+
+    int variable(JackSymbolTable.SymbolEntry symbol) {
+        return add(Node.VARIABLE, 0, NONE, ref(symbol));
+    }
+
+    int array(int address) {
+        return add(Node.ARRAY, 0, address, NONE);
+    }
+
+    int unary(char op, int operand) {
+        return add(Node.UNARY, op, operand, NONE);
+    }
+
+    int binary(char op, int left, int right) {
+        return add(Node.BINARY, op, left, right);
+    }
+
+    // arguments are linked through next
+    int call(String name, int firstArgument) {
+        int count = 0;
+        for (int argument = firstArgument; argument != NONE; argument = nexts[argument]) {
+            count++;
+        }
+        return add(Node.CALL, count, firstArgument, ref(name));
+    }
+
+    int let(JackSymbolTable.SymbolEntry symbol, int value) {
+        return add(Node.LET, 0, value, ref(symbol));
+    }
+
+    int letArray(int address, int value) {
+        return add(Node.LET_ARRAY, 0, address, value);
+    }
+
+    int ifStatement(int condition, int statements, int elseStatements) {
+        return add(Node.IF, elseStatements, condition, statements);
+    }
+
+    int whileStatement(int condition, int statements) {
+        return add(Node.WHILE, 0, condition, statements);
+    }
+
+    int doStatement(int call) {
+        return add(Node.DO, 0, call, NONE);
+    }
+
+    int returnStatement(int value) {
+        return add(Node.RETURN, 0, value, NONE);
+    }
+
+    void addSubroutine(String name, JackTokenizer.Keyword keyword, int localCount, int statements) {
+        int subroutine = add(Node.SUBROUTINE, localCount, statements, ref(name));
+        ref(keyword);
+        if (lastSubroutine == NONE) {
+            firstSubroutine = subroutine;
+        } else {
+            nexts[lastSubroutine] = subroutine;
+        }
+        lastSubroutine = subroutine;
+    }
+
+    // links node after previous and returns it, previous NONE starts a list
+    int link(int previous, int node) {
+        if (previous != NONE) {
+            nexts[previous] = node;
+        }
+        return node;
+    }
+
+    Node node(int node) {
+        return NODES[nodes[node]];
+    }
+
+    int value(int node) {
+        return values[node];
+    }
+
+    int first(int node) {
+        return firsts[node];
+    }
+
+    int second(int node) {
+        return seconds[node];
+    }
+
+    int next(int node) {
+        return nexts[node];
+    }
+
+    String name(int node) {
+        return (String) refs[seconds[node]];
+    }
+
+    JackSymbolTable.SymbolEntry symbol(int node) {
+        return (JackSymbolTable.SymbolEntry) refs[seconds[node]];
+    }
+
+    // constructor, function or method, kept right after the subroutine's name
+    JackTokenizer.Keyword keyword(int subroutine) {
+        return (JackTokenizer.Keyword) refs[seconds[subroutine] + 1];
+    }
+
+    // rewrites node in place, it keeps its place in whatever list it's in
+    void set(int node, Node type, int value, int first, int second) {
+        nodes[node] = (byte) type.ordinal();
+        values[node] = value;
+        firsts[node] = first;
+        seconds[node] = second;
+    }
+
+    // makes node a copy of source, apart from its next
+    void replace(int node, int source) {
+        nodes[node] = nodes[source];
+        values[node] = values[source];
+        firsts[node] = firsts[source];
+        seconds[node] = seconds[source];
+    }
+
+    private int add(Node type, int value, int first, int second) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            firsts = Arrays.copyOf(firsts, size * 2);
+            seconds = Arrays.copyOf(seconds, size * 2);
+            nexts = Arrays.copyOf(nexts, size * 2);
+        }
+        nodes[size] = (byte) type.ordinal();
+        values[size] = value;
+        firsts[size] = first;
+        seconds[size] = second;
+        nexts[size] = NONE;
+        return size++;
+    }
+
+    private int ref(Object ref) {
+        if (refCount == refs.length) {
+            refs = Arrays.copyOf(refs, refCount * 2);
+        }
+        refs[refCount] = ref;
+        return refCount++;
+    }
+}
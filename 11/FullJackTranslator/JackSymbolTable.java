@@ -1,91 +1,137 @@
-import java.util.Arrays;
 import java.util.HashMap;
 
 class JackSymbolTable {
 
+    private static final int DEFAULT_SYMBOLS = 10_000;
+    private static final int SUBROUTINES = 100;
+
     private HashMap<String, SymbolEntry> classScope;
+    // entries stay in the map between subroutines and only count for the subroutine whose generation they carry,
+    // a later subroutine's entry for the same name replaces the value without rehashing
     private HashMap<String, SymbolEntry> subroutineScope;
-    private HashMap<String, SymbolEntry> currentScope;
+    private int generation = 0;
+    // next index of each kind
+    private int[] counts = new int[Kind.values().length];
 
     JackSymbolTable() {
         this.classScope = new HashMap<>();
         this.subroutineScope = new HashMap<>();
     }
 
-    void startSubroutine() {
-        this.subroutineScope.clear();
-    }
-
-    void define(String name, String type, Kind kind) {
-        setScope(kind);
-        if (this.currentScope.get(name) != null) throw new IllegalArgumentException("can't redefine " + name);
-        this.currentScope.put(name, new SymbolEntry(type, kind));
-    }
+    // half the symbols go in the class, the other half are defined again in each subroutine, which then looks up
+    // every symbol once
+    public static void main(String[] args) {
+        int symbols = DEFAULT_SYMBOLS;
+        boolean time = false;
+        for (String arg : args) {
+            if (arg.equals("time")) {
+                time = true;
+            } else {
+                symbols = Integer.parseInt(arg);
+            }
+        }
+        String[] names = new String[symbols];
+        for (int i = 0; i < symbols; i++) {
+            names[i] = "symbol" + i;
+        }
 
-    private void setScope(Kind kind) {
-        if (Arrays.asList(Kind.ARG, Kind.VAR).contains(kind)) {
-            this.currentScope = this.subroutineScope;
+        long lookups = 0;
+        long found = 0;
+        long startTime = System.nanoTime();
+        JackSymbolTable table = new JackSymbolTable();
+        for (int i = 0; i < symbols / 2; i++) {
+            table.define(names[i], "int", i % 2 == 0 ? Kind.STATIC : Kind.FIELD);
         }
-        else {
-            this.currentScope = this.classScope;
+        for (int subroutine = 0; subroutine < SUBROUTINES; subroutine++) {
+            table.startSubroutine();
+            for (int i = symbols / 2; i < symbols; i++) {
+                table.define(names[i], "int", i % 2 == 0 ? Kind.ARG : Kind.VAR);
+            }
+            for (String name : names) {
+                found += table.lookup(name) != null ? 1 : 0;
+                lookups++;
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println("Lookups: " + lookups + (found == lookups ? "" : ", " + (lookups - found) + " not found"));
+        if (time) {
+            System.out.println("Ran in " + elapsed / 1_000_000 + " ms, " +
+                    lookups * 1000 / Math.max(elapsed, 1) + " million lookups per second");
         }
     }
 
-    int varCount(Kind kind) {
-        setScope(kind);
-        return (int) this.currentScope.values().stream().filter(entry -> entry.getKind().equals(kind)).count();
+    void startSubroutine() {
+        this.generation++;
+        this.counts[Kind.ARG.ordinal()] = 0;
+        this.counts[Kind.VAR.ordinal()] = 0;
     }
 
-    Kind kindOf(String name) {
-        SymbolEntry entry = this.subroutineScope.get(name);
-        if (entry == null) {
-            entry = this.classScope.get(name);
+    void define(String name, String type, Kind kind) {
+        int index = this.counts[kind.ordinal()]++;
+        if (kind.isSubroutineScope()) {
+            // entries are kept by the IR after the subroutine, so they're replaced rather than reused
+            SymbolEntry entry = this.subroutineScope.put(name, new SymbolEntry(type, kind, index, this.generation));
+            if (entry != null && entry.generation == this.generation) {
+                throw new IllegalArgumentException("can't redefine " + name);
+            }
+        }
+        else {
+            if (this.classScope.putIfAbsent(name, new SymbolEntry(type, kind, index, 0)) != null) {
+                throw new IllegalArgumentException("can't redefine " + name);
+            }
         }
-        return entry == null ? null : entry.getKind();
     }
 
-    String typeOf(String name) {
-        SymbolEntry entry = this.subroutineScope.get(name);
-        if (entry == null) {
-            entry = this.classScope.get(name);
-        }
-        return entry == null ? null : entry.getType();
+    int varCount(Kind kind) {
+        return this.counts[kind.ordinal()];
     }
 
-    int indexOf(String name) {
+    // the subroutine's own symbol if there is one, then the class's, null if neither defines it
+    SymbolEntry lookup(String name) {
         SymbolEntry entry = this.subroutineScope.get(name);
-        if (entry == null) {
-            entry = this.classScope.get(name);
+        if (entry != null && entry.generation == this.generation) {
+            return entry;
         }
-        return entry == null ? null : entry.getIndex();
+        return this.classScope.get(name);
     }
 
     enum Kind {
-        STATIC("static"),
-        FIELD("this"),
-        ARG("argument"),
-        VAR("local");
+        STATIC(VMWriter.Segment.STATIC),
+        FIELD(VMWriter.Segment.THIS),
+        ARG(VMWriter.Segment.ARGUMENT),
+        VAR(VMWriter.Segment.LOCAL);
 
-        String name;
+        VMWriter.Segment segment;
 
-        Kind(String name) {
-            this.name = name;
+        Kind(VMWriter.Segment segment) {
+            this.segment = segment;
         }
 
         String getName() {
-            return this.name;
+            return this.segment.getName();
+        }
+
+        VMWriter.Segment getSegment() {
+            return this.segment;
+        }
+
+        boolean isSubroutineScope() {
+            return this == ARG || this == VAR;
         }
     }
 
-    class SymbolEntry {
-        String type;
-        Kind kind;
-        int index;
+    static class SymbolEntry {
+        final String type;
+        final Kind kind;
+        final int index;
+        final int generation;
 
-        SymbolEntry(String type, Kind kind) {
+        SymbolEntry(String type, Kind kind, int index, int generation) {
             this.type = type;
             this.kind = kind;
-            this.index = varCount(kind);
+            this.index = index;
+            this.generation = generation;
         }
 
         Kind getKind() {
@@ -101,4 +147,4 @@ class JackSymbolTable {
         }
     }
 
-}
\ No newline at end of file
+}
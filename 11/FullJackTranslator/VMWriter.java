@@ -1,96 +1,195 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
+// collects a class's VM commands as int records, they're only formatted as text when written out
 class VMWriter {
 
-    private VMWriter() {}
+    enum Segment {
+        CONSTANT("constant"),
+        ARGUMENT("argument"),
+        LOCAL("local"),
+        STATIC("static"),
+        THIS("this"),
+        THAT("that"),
+        POINTER("pointer"),
+        TEMP("temp");
 
-    static String writePush(String seg, int index) {
-        return "push " + seg + " " + index;
+        private final String name;
+
+        Segment(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return this.name;
+        }
+    }
+
+    enum Command {
+        PUSH("push"),
+        POP("pop"),
+        ADD("add"),
+        SUB("sub"),
+        NEG("neg"),
+        EQ("eq"),
+        GT("gt"),
+        LT("lt"),
+        AND("and"),
+        OR("or"),
+        NOT("not"),
+        LABEL("label"),
+        GOTO("goto"),
+        IF_GOTO("if-goto"),
+        FUNCTION("function"),
+        CALL("call"),
+        RETURN("return");
+
+        private final String name;
+
+        Command(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return this.name;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    // command ordinal in the low byte, segment ordinal above it
+    private int[] codes = new int[256];
+    // push/pop index, label number, or argument/local count
+    private int[] values = new int[256];
+    // label prefix or function name, null for the rest
+    private String[] names = new String[256];
+    private int size = 0;
+
+    int size() {
+        return size;
+    }
+
+    void writePush(Segment segment, int index) {
+        add(Command.PUSH, segment, index, null);
     }
 
-    static String writePop(String seg, int index) {
-        return "pop " + seg + " " + index;
+    void writePop(Segment segment, int index) {
+        add(Command.POP, segment, index, null);
     }
 
-    static String writeArithmetic(String command) {
+    void writeArithmetic(char command) {
         switch (command) {
-            case "+": return "add";
-            case "-": return "sub";
-            case "*": return "call Math.multiply 2";
-            case "/": return "call Math.divide 2";
-            case "=": return "eq";
-            case ">": return "gt";
-            case "<": return "lt";
-            case "&": return "and";
-            case "|": return "or";
+            case '+': add(Command.ADD); return;
+            case '-': add(Command.SUB); return;
+            case '*': writeCall("Math.multiply", 2); return;
+            case '/': writeCall("Math.divide", 2); return;
+            case '=': add(Command.EQ); return;
+            case '>': add(Command.GT); return;
+            case '<': add(Command.LT); return;
+            case '&': add(Command.AND); return;
+            case '|': add(Command.OR); return;
             default: throw new IllegalArgumentException("invalid op " + command);
         }
     }
 
-    static String writeLabel(String label) {
-        return "label " + label;
+    // labels are a fixed prefix and a number, joined only when written
+    void writeLabel(String prefix, int number) {
+        add(Command.LABEL, Segment.CONSTANT, number, prefix);
     }
 
-    static String writeGoTo(String label) {
-        return "goto " + label;
+    void writeGoTo(String prefix, int number) {
+        add(Command.GOTO, Segment.CONSTANT, number, prefix);
     }
 
-    static String writeIf(String label) {
-        return "if-goto " + label;
+    void writeIf(String prefix, int number) {
+        add(Command.IF_GOTO, Segment.CONSTANT, number, prefix);
     }
 
-    static String writeCall(String name, int nArgs) {
-        return "call " + name + " " + nArgs;
+    void writeCall(String name, int nArgs) {
+        add(Command.CALL, Segment.CONSTANT, nArgs, name);
     }
 
-    static String writeFunction(String name, int nLocals) {
-        return "function " + name + " " + nLocals;
+    void writeFunction(String name, int nLocals) {
+        add(Command.FUNCTION, Segment.CONSTANT, nLocals, name);
     }
 
-    static String writeReturn() {
-        return "return";
+    void writeReturn() {
+        add(Command.RETURN);
     }
 
-    static String writeUnaryOp(String op) {
-        if (op.equals("-")) {
-            return "neg";
+    void writeUnaryOp(char op) {
+        add(op == '-' ? Command.NEG : Command.NOT);
+    }
+
+    void writeArrayAccess(boolean pushFromArray) {
+        if (pushFromArray) {
+            // expects the address to pop from
+            writePop(Segment.POINTER, 1);
+            writePush(Segment.THAT, 0);
+        } else {
+            // expects the value then address to push to from the stack
+            writePop(Segment.TEMP, 0);
+            writePop(Segment.POINTER, 1);
+            writePush(Segment.TEMP, 0);
+            writePop(Segment.THAT, 0);
         }
-        else {
-            return "not";
+    }
+
+    // any 16 bit value, push constant only takes 0 to 32767
+    void writeConstant(int value) {
+        value = (short) value;
+        if (value >= 0) {
+            writePush(Segment.CONSTANT, value);
+        } else if (value == Short.MIN_VALUE) {
+            writePush(Segment.CONSTANT, Short.MAX_VALUE);
+            writeUnaryOp('~');
+        } else {
+            writePush(Segment.CONSTANT, -value);
+            writeUnaryOp('-');
         }
     }
 
-    static List<String> writeKeywordConstant(String constant) {
-        switch (constant) {
-            case "null":
-            case "false": return Collections.singletonList(writePush("constant", 0));
-            case "true": {
-                List<String> output = new ArrayList<>();
-                output.add(writePush("constant", 1));
-                output.add(writeUnaryOp("-"));
-                return output;
+    // formats every command once, in the order they were written
+    void writeTo(OutputSink output) {
+        StringBuilder line = new StringBuilder(64);
+        for (int i = 0; i < size; i++) {
+            Command command = COMMANDS[codes[i] & 0xFF];
+            line.setLength(0);
+            line.append(command.getName());
+            switch (command) {
+                case PUSH:
+                case POP:
+                    line.append(' ').append(SEGMENTS[codes[i] >> 8].getName()).append(' ').append(values[i]);
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    line.append(' ').append(names[i]).append(values[i]);
+                    break;
+                case FUNCTION:
+                case CALL:
+                    line.append(' ').append(names[i]).append(' ').append(values[i]);
+                    break;
+                default:
+                    break;
             }
-            case "this": return Collections.singletonList(writePush("pointer", 0));
-            default: throw new IllegalArgumentException("invalid constant " + constant);
+            output.add(line.toString());
         }
     }
 
-    static List<String> writeArrayAccess(boolean pushFromArray) {
-        List<String> output = new ArrayList<>();
-        if (pushFromArray) {
-            // expects the address to pop from
-            output.add(writePop("pointer", 1));
-            output.add(writePush("that", 0));
-        } else {
-            // expects the value then address to push to from the stack
-            output.add(writePop("temp", 0));
-            output.add(writePop("pointer", 1));
-            output.add(writePush("temp", 0));
-            output.add(writePop("that", 0));
+    private void add(Command command) {
+        add(command, Segment.CONSTANT, 0, null);
+    }
+
+    private void add(Command command, Segment segment, int value, String name) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            names = Arrays.copyOf(names, size * 2);
         }
-        return output;
+        codes[size] = command.ordinal() | segment.ordinal() << 8;
+        values[size] = value;
+        names[size] = name;
+        size++;
     }
 }
-